@@ -0,0 +1,30 @@
+package hotelSystem.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all the hotel benchmarks once for each thread count given on the command line,
+ * JMH itself can not make the thread count a parameter.
+ * Results are written to jmh-threads-N.json next to the working directory.
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException {
+		String[] threadCounts = args.length > 0 ? args : new String[] { "1", "2", "4", "8" };
+
+		for(String threadCount : threadCounts) {
+			int threads = Integer.parseInt(threadCount);
+			Options options = new OptionsBuilder()
+					.include(BenchmarkRunner.class.getPackage().getName() + ".*Benchmark")
+					.threads(threads)
+					.resultFormat(ResultFormatType.JSON)
+					.result("jmh-threads-" + threads + ".json")
+					.build();
+			new Runner(options).run();
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package hotelSystem.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import hotelSystem.NoSuchBookingException;
+
+/**
+ * Writes, bookRoom, bookRooms, updateBooking and cancelBooking.
+ * Booking and cancelling run side by side in one group so the calendar stays at the
+ * pre-booked density instead of filling up during the measurement.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BookingBenchmark {
+
+	// Number of rooms booked together by bookRooms.
+	private static final int GROUP_SIZE = 3;
+
+	@Benchmark
+	@Group("single")
+	public boolean bookRoom(HotelState state, ThreadState thread) {
+		String ref = thread.nextRef();
+		boolean booked = state.hotel.bookRoom(ref, state.randomStay(thread.random), state.randomRoom(thread.random));
+		if(booked) {
+			state.toCancel.add(ref);
+		}
+		return booked;
+	}
+
+	@Benchmark
+	@Group("single")
+	public void cancelBooking(HotelState state) throws NoSuchBookingException {
+		state.cancelOne();
+	}
+
+	@Benchmark
+	@Group("multi")
+	public boolean bookRooms(HotelState state, ThreadState thread) throws NoSuchBookingException {
+		int[] roomNums = new int[GROUP_SIZE];
+		for(int i = 0; i < GROUP_SIZE; i++) {
+			roomNums[i] = state.randomRoom(thread.random);
+		}
+		String ref = thread.nextRef();
+		boolean booked = state.hotel.bookRooms(ref, state.randomStay(thread.random), roomNums);
+		if(booked) {
+			state.toCancel.add(ref);
+		}
+		return booked;
+	}
+
+	@Benchmark
+	@Group("multi")
+	public void cancelBookings(HotelState state) throws NoSuchBookingException {
+		state.cancelOne();
+	}
+
+	/**
+	 * Moves a pre-booked stay to a random start day of the same room, most moves are rejected at high density.
+	 */
+	@Benchmark
+	public boolean updateBooking(HotelState state, ThreadState thread) throws NoSuchBookingException {
+		if(state.prebooked.length == 0) {
+			return false;
+		}
+		int booking = thread.random.nextInt(state.prebooked.length);
+		return state.hotel.updateBooking(state.prebooked[booking], state.randomStay(thread.random), state.prebookedRooms[booking]);
+	}
+}
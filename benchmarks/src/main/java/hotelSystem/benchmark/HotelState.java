@@ -0,0 +1,108 @@
+package hotelSystem.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import hotelSystem.BookingEngine;
+import hotelSystem.NoSuchBookingException;
+
+/**
+ * The hotel shared by all benchmark threads, pre-booked up to the requested density.
+ */
+@State(Scope.Benchmark)
+public class HotelState {
+
+	// Number of days the benchmark books in, the lock free engine needs them to fit in its calendar.
+	public static final int HORIZON_DAYS = 365;
+
+	@Param({ "locking", "lockfree", "offheap" })
+	public String engine;
+
+	@Param({ "100", "1000" })
+	public int roomCount;
+
+	// Fraction of all room days that are booked before measuring.
+	@Param({ "0.1", "0.5" })
+	public double bookingDensity;
+
+	// Number of days in each stay.
+	@Param({ "3", "14" })
+	public int stayLength;
+
+	public BookingEngine hotel;
+
+	// References booked during setup, updateBooking moves them around, and the room each one is in.
+	// The updates keep the room, so prebookedRooms stays true for the whole trial.
+	public String[] prebooked;
+	public int[] prebookedRooms;
+
+	// References booked by the bookRoom benchmarks and waiting to be cancelled.
+	public final ConcurrentLinkedQueue<String> toCancel = new ConcurrentLinkedQueue<String>();
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		int[] roomNums = new int[roomCount];
+		for(int i = 0; i < roomCount; i++) {
+			roomNums[i] = i + 1;
+		}
+		hotel = BookingEngine.create(engine, roomNums);
+		toCancel.clear();
+
+		// book random stays until the density is reached, giving up after too many conflicts.
+		SplittableRandom random = new SplittableRandom(42);
+		long targetDays = (long) (bookingDensity * roomCount * HORIZON_DAYS);
+		long bookedDays = 0;
+		int misses = 0;
+		List<String> refs = new ArrayList<String>();
+		List<Integer> rooms = new ArrayList<Integer>();
+		while(bookedDays + stayLength <= targetDays && misses < 10_000) {
+			String ref = "pre-" + refs.size();
+			int roomNum = randomRoom(random);
+			if(hotel.bookRoom(ref, randomStay(random), roomNum)) {
+				refs.add(ref);
+				rooms.add(roomNum);
+				bookedDays += stayLength;
+				misses = 0;
+			}
+			else {
+				misses++;
+			}
+		}
+		prebooked = refs.toArray(new String[0]);
+		prebookedRooms = rooms.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	public int randomRoom(SplittableRandom random) {
+		return random.nextInt(roomCount) + 1;
+	}
+
+	public int[] randomStay(SplittableRandom random) {
+		return stay(random.nextInt(HORIZON_DAYS - stayLength));
+	}
+
+	public int[] stay(int firstDay) {
+		int[] days = new int[stayLength];
+		for(int i = 0; i < stayLength; i++) {
+			days[i] = firstDay + i;
+		}
+		return days;
+	}
+
+	/**
+	 * Cancels one booking made by a booking benchmark, if there is any.
+	 */
+	public void cancelOne() throws NoSuchBookingException {
+		String ref = toCancel.poll();
+		if(ref != null) {
+			hotel.cancelBooking(ref);
+		}
+	}
+}
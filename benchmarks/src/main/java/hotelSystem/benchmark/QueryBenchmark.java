@@ -0,0 +1,39 @@
+package hotelSystem.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Availability checks, roomBooked and roomsBooked.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+
+	// Number of rooms asked for by roomsBooked.
+	private static final int GROUP_SIZE = 3;
+
+	@Benchmark
+	public boolean roomBooked(HotelState state, ThreadState thread) {
+		return state.hotel.roomBooked(state.randomStay(thread.random), state.randomRoom(thread.random));
+	}
+
+	@Benchmark
+	public boolean roomsBooked(HotelState state, ThreadState thread) {
+		int[] roomNums = new int[GROUP_SIZE];
+		for(int i = 0; i < GROUP_SIZE; i++) {
+			roomNums[i] = state.randomRoom(thread.random);
+		}
+		return state.hotel.roomsBooked(state.randomStay(thread.random), roomNums);
+	}
+}
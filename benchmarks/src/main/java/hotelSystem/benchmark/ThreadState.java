@@ -0,0 +1,29 @@
+package hotelSystem.benchmark;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Random numbers and booking references private to one benchmark thread.
+ */
+@State(Scope.Thread)
+public class ThreadState {
+
+	private static final AtomicInteger THREAD_IDS = new AtomicInteger();
+
+	private final int threadId = THREAD_IDS.incrementAndGet();
+
+	public final SplittableRandom random = new SplittableRandom(threadId);
+
+	private long nextRef;
+
+	/**
+	 * Gets a booking reference no other thread uses.
+	 */
+	public String nextRef() {
+		return "t" + threadId + "-" + nextRef++;
+	}
+}
@@ -0,0 +1,231 @@
+package hotelSystem;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of roomsBooked answers keyed by the room numbers and the days asked for.
+ *
+ * Every answer is stored with the versions of the room calendars it was computed from. A room calendar
+ * gets a new version on every booking, update and cancellation of that room, so an answer is used only
+ * while none of its rooms has changed and a booking in one room never throws away the answers about others.
+ *
+ * The answers are kept in a fixed table without any lock: a key may be in one of PROBES slots from its hash,
+ * lookups read them and hits only set the referenced flag of the entry. A new answer takes a free or an equal
+ * slot, or else the first of its slots that was not referenced since the last pass, clearing the flags it passes
+ * on the way like a CLOCK hand. That is an approximate LRU, a recently used answer gets a second chance,
+ * and two callers storing at the same time lose at most one of their answers.
+ *
+ * The cache is off unless SIZE_PROPERTY is set, a calendar lookup is already a binary search per room so
+ * it only pays off for callers that ask the same question about many rooms over and over.
+ */
+final class AvailabilityCache {
+
+	// System property with the maximum number of cached answers, 0 turns the cache off.
+	static final String SIZE_PROPERTY = "hotelSystem.availabilityCacheSize";
+	static final int DEFAULT_SIZE = 0;
+
+	// Number of slots a key can be in.
+	private static final int PROBES = 4;
+
+	// Rough size of a cached answer without its arrays: the entry, the key, the answer and the array headers.
+	private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+	private final AtomicReferenceArray<Entry> slots;
+	private final int mask;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder memoryBytes = new LongAdder();
+
+	AvailabilityCache(int size) {
+		int capacity = Integer.highestOneBit(Math.max(PROBES, Math.min(size, 1 << 30) - 1)) << 1;
+		this.slots = new AtomicReferenceArray<Entry>(capacity);
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * Gets the cached answer if it was computed from the given calendars.
+	 * @param interval True if days holds the check-in and check-out day of a stay instead of single days
+	 * @param calendars The current calendars of the rooms, in the order of roomNums
+	 * @return The answer, null if there is none or one of the rooms has changed since
+	 */
+	Boolean get(int[] roomNums, int[] days, boolean interval, RoomCalendar[] calendars) {
+		Key key = new Key(roomNums, days, interval);
+		int first = spread(key.hash);
+		for(int i = 0; i < PROBES; i++) {
+			Entry entry = slots.get(first + i & mask);
+			if(entry != null && entry.key.equals(key)) {
+				if(!entry.answer.isCurrent(calendars)) {
+					break;
+				}
+				// only written when it changes, so hits on a popular answer do not keep writing one cache line.
+				if(!entry.referenced) {
+					entry.referenced = true;
+				}
+				hits.increment();
+				return entry.answer.booked;
+			}
+		}
+		misses.increment();
+		return null;
+	}
+
+	/**
+	 * Stores the answer computed from the given calendars, replacing any older answer to the same question.
+	 */
+	void put(int[] roomNums, int[] days, boolean interval, RoomCalendar[] calendars, boolean booked) {
+		// our own copies, the caller may change its arrays afterwards.
+		Key key = new Key(roomNums.clone(), days.clone(), interval);
+		long[] versions = new long[calendars.length];
+		for(int i = 0; i < calendars.length; i++) {
+			versions[i] = calendars[i].version;
+		}
+		Entry entry = new Entry(key, new Answer(booked, versions));
+
+		int first = spread(key.hash);
+		int victim = -1;
+		for(int i = 0; i < PROBES; i++) {
+			int slot = first + i & mask;
+			Entry current = slots.get(slot);
+			if(current == null || current.key.equals(key)) {
+				if(slots.compareAndSet(slot, current, entry)) {
+					memoryBytes.add(current == null ? bytesOf(key) : 0);
+				}
+				// lost to another caller, its answer is as good as ours.
+				return;
+			}
+			if(victim < 0) {
+				if(!current.referenced) {
+					victim = slot;
+				}
+				else {
+					// second chance, the next pass may take it.
+					current.referenced = false;
+				}
+			}
+		}
+		// every slot was referenced, the first one goes.
+		int slot = victim < 0 ? first & mask : victim;
+		Entry evicted = slots.get(slot);
+		if(evicted != null && slots.compareAndSet(slot, evicted, entry)) {
+			evictions.increment();
+			memoryBytes.add(bytesOf(key) - bytesOf(evicted.key));
+		}
+	}
+
+	long hits() {
+		return hits.sum();
+	}
+
+	long misses() {
+		return misses.sum();
+	}
+
+	long evictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Gets the number of cached answers, including the ones whose rooms have changed since.
+	 */
+	int size() {
+		int size = 0;
+		for(int i = 0; i < slots.length(); i++) {
+			if(slots.get(i) != null) {
+				size++;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Gets an estimate of the heap used by the cached answers.
+	 */
+	long memoryBytes() {
+		return memoryBytes.sum();
+	}
+
+	/**
+	 * Clears the hit, miss and eviction counts, the cached answers are kept.
+	 */
+	void resetCounts() {
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+	}
+
+	private int spread(int hash) {
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	private static long bytesOf(Key key) {
+		// the key arrays plus one long version per room.
+		return ENTRY_OVERHEAD_BYTES + 4L * key.roomNums.length + 4L * key.days.length + 8L * key.roomNums.length;
+	}
+
+	private static final class Entry {
+		final Key key;
+		final Answer answer;
+
+		// Set by hits, cleared by the stores that pass over the entry.
+		volatile boolean referenced;
+
+		Entry(Key key, Answer answer) {
+			this.key = key;
+			this.answer = answer;
+		}
+	}
+
+	private static final class Key {
+		final int[] roomNums;
+		final int[] days;
+		final boolean interval;
+		final int hash;
+
+		Key(int[] roomNums, int[] days, boolean interval) {
+			this.roomNums = roomNums;
+			this.days = days;
+			this.interval = interval;
+			this.hash = 31 * (31 * Arrays.hashCode(roomNums) + Arrays.hashCode(days)) + (interval ? 1 : 0);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if(!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return hash == key.hash && interval == key.interval
+					&& Arrays.equals(roomNums, key.roomNums) && Arrays.equals(days, key.days);
+		}
+	}
+
+	private static final class Answer {
+		final boolean booked;
+
+		// Calendar version of every room when the answer was computed, in the order of the key's rooms.
+		final long[] versions;
+
+		Answer(boolean booked, long[] versions) {
+			this.booked = booked;
+			this.versions = versions;
+		}
+
+		boolean isCurrent(RoomCalendar[] calendars) {
+			for(int i = 0; i < versions.length; i++) {
+				if(calendars[i].version != versions[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package hotelSystem;
+
+/**
+ * One stay of a booking in one room, as handed out by Hotel.bookings.
+ * The check-out day is not booked, the guest leaves that day.
+ */
+public final class BookedStay {
+
+	private final String bookingRef;
+	private final int roomNum;
+	private final int checkIn;
+	private final int checkOut;
+
+	BookedStay(String bookingRef, int roomNum, int checkIn, int checkOut) {
+		this.bookingRef = bookingRef;
+		this.roomNum = roomNum;
+		this.checkIn = checkIn;
+		this.checkOut = checkOut;
+	}
+
+	public String getBookingRef() {
+		return bookingRef;
+	}
+
+	public int getRoomNum() {
+		return roomNum;
+	}
+
+	public int getCheckIn() {
+		return checkIn;
+	}
+
+	public int getCheckOut() {
+		return checkOut;
+	}
+
+	/**
+	 * Gets the booked days from check-in up to, not including, check-out. Made on every call.
+	 */
+	public int[] getDays() {
+		return Days.range(checkIn, checkOut);
+	}
+
+	@Override
+	public String toString() {
+		return bookingRef + " room " + roomNum + " [" + checkIn + ", " + checkOut + ")";
+	}
+}
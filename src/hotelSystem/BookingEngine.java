@@ -0,0 +1,160 @@
+package hotelSystem;
+
+/**
+ * The booking operations of a hotel.
+ * Hotel is the locking implementation, LockFreeHotel books with compare-and-set on the room calendars
+ * and OffHeapHotel keeps the calendars of very large hotels outside of the Java heap.
+ * Use create to pick one of them by configuration.
+ *
+ * Days are passed as primitive int arrays, the Integer array methods are kept for older callers
+ * and only unbox the days before calling the int array version. A stay of consecutive days can also
+ * be passed as its check-in and check-out day.
+ */
+public interface BookingEngine {
+
+	// System property used by create(int[]) to choose the engine.
+	String ENGINE_PROPERTY = "hotelSystem.engine";
+
+	String LOCKING = "locking";
+	String LOCK_FREE = "lockfree";
+	String OFF_HEAP = "offheap";
+
+	/**
+	 * Checks if the room is already booked for given days array
+	 * @param days Array of days to check
+	 * @param roomNumber Room number
+	 * @return True if the room is booked for at least one of the days, false otherwise
+	 */
+	boolean roomBooked(int[] days, int roomNumber);
+
+	/**
+	 * Checks if the specified rooms are booked for the given days
+	 * @param days The given days for booking
+	 * @param roomNums The room numbers to check
+	 * @return True if any of the rooms is booked for at least one of the days, false otherwise
+	 */
+	boolean roomsBooked(int[] days, int[] roomNums);
+
+	/**
+	 * Books the room with given booking reference for the days for the room number
+	 * @param bookingRef The booking reference to keep track of days and room
+	 * @param days Array containing the days to book
+	 * @param roomNum The room number to book
+	 * @return True if the booking was successful, false otherwise
+	 */
+	boolean bookRoom(String bookingRef, int[] days, int roomNum);
+
+	/**
+	 * Books all the given rooms for the days under a new booking reference
+	 * @param bookingRef The new booking reference
+	 * @param days Array containing the days to book
+	 * @param roomNums The room numbers to book
+	 * @return True if the booking was successful, false otherwise
+	 * @throws NoSuchBookingException if the booking reference is already in use
+	 */
+	boolean bookRooms(String bookingRef, int[] days, int[] roomNums) throws NoSuchBookingException;
+
+	/**
+	 * Updates the existing booking
+	 * @param bookingRef The booking reference to update
+	 * @param days The new array of days to change to
+	 * @param roomNum The room number to update the booking
+	 * @return True if the update was successful, false otherwise
+	 * @throws NoSuchBookingException if the booking reference is not found
+	 */
+	boolean updateBooking(String bookingRef, int[] days, int roomNum) throws NoSuchBookingException;
+
+	/**
+	 * Updates the existing booking, afterwards it holds the given days in exactly the given rooms.
+	 * The rooms it had before and are not given are released.
+	 * @param bookingRef The booking reference to update
+	 * @param days The new array of days to change to
+	 * @param roomNums The room numbers to update the booking
+	 * @return True if the update was successful, false otherwise
+	 * @throws NoSuchBookingException if the booking reference is not found
+	 */
+	boolean updateBooking(String bookingRef, int[] days, int[] roomNums) throws NoSuchBookingException;
+
+	/**
+	 * Cancels the existing booking, removes it from the system
+	 * @param bookingRef The booking reference to remove
+	 * @throws NoSuchBookingException if the booking reference is not found
+	 */
+	void cancelBooking(String bookingRef) throws NoSuchBookingException;
+
+	// Adapters for callers that still pass the days as Integer arrays.
+
+	default boolean roomBooked(Integer[] days, int roomNumber) {
+		return roomBooked(Days.unbox(days), roomNumber);
+	}
+
+	default boolean roomsBooked(Integer[] days, int[] roomNums) {
+		return roomsBooked(Days.unbox(days), roomNums);
+	}
+
+	default boolean bookRoom(String bookingRef, Integer[] days, int roomNum) {
+		return bookRoom(bookingRef, Days.unbox(days), roomNum);
+	}
+
+	default boolean bookRooms(String bookingRef, Integer[] days, int[] roomNums) throws NoSuchBookingException {
+		return bookRooms(bookingRef, Days.unbox(days), roomNums);
+	}
+
+	default boolean updateBooking(String bookingRef, Integer[] days, int roomNum) throws NoSuchBookingException {
+		return updateBooking(bookingRef, Days.unbox(days), roomNum);
+	}
+
+	default boolean updateBooking(String bookingRef, Integer[] days, int[] roomNums) throws NoSuchBookingException {
+		return updateBooking(bookingRef, Days.unbox(days), roomNums);
+	}
+
+	// Stays given as the half-open interval [checkIn, checkOut), the guest leaves on the check-out day.
+	// These call the day array versions, Hotel overrides them to check and store the interval itself.
+
+	default boolean roomBooked(int checkIn, int checkOut, int roomNumber) {
+		return roomBooked(Days.range(checkIn, checkOut), roomNumber);
+	}
+
+	default boolean roomsBooked(int checkIn, int checkOut, int[] roomNums) {
+		return roomsBooked(Days.range(checkIn, checkOut), roomNums);
+	}
+
+	default boolean bookRoom(String bookingRef, int checkIn, int checkOut, int roomNum) {
+		return bookRoom(bookingRef, Days.range(checkIn, checkOut), roomNum);
+	}
+
+	default boolean bookRooms(String bookingRef, int checkIn, int checkOut, int[] roomNums) throws NoSuchBookingException {
+		return bookRooms(bookingRef, Days.range(checkIn, checkOut), roomNums);
+	}
+
+	default boolean updateBooking(String bookingRef, int checkIn, int checkOut, int[] roomNums) throws NoSuchBookingException {
+		return updateBooking(bookingRef, Days.range(checkIn, checkOut), roomNums);
+	}
+
+	/**
+	 * Creates the engine named by the hotelSystem.engine system property, the locking Hotel by default.
+	 * @param roomNums Array of rooms which the hotel contains
+	 */
+	static BookingEngine create(int[] roomNums) {
+		return create(System.getProperty(ENGINE_PROPERTY, LOCKING), roomNums);
+	}
+
+	/**
+	 * Creates the engine with the given name.
+	 * @param engine One of "locking", "lockfree" or "offheap"
+	 * @param roomNums Array of rooms which the hotel contains
+	 * @throws IllegalArgumentException if the engine name is unknown
+	 */
+	static BookingEngine create(String engine, int[] roomNums) {
+		if(LOCKING.equals(engine)) {
+			return new Hotel(roomNums);
+		}
+		if(LOCK_FREE.equals(engine)) {
+			return new LockFreeHotel(roomNums);
+		}
+		if(OFF_HEAP.equals(engine)) {
+			return new OffHeapHotel(roomNums);
+		}
+		throw new IllegalArgumentException("Unknown booking engine: " + engine);
+	}
+}
@@ -0,0 +1,180 @@
+package hotelSystem;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Writes a stream of stays to a CSV file in the bookingRef,roomNum,checkIn,checkOut format BookingImport reads.
+ * A reference keeps its commas, the import takes the reference up to the last three commas of the line.
+ * Backslashes and line breaks in a reference are written as \\, \n and \r so every stay stays on one line.
+ *
+ * Every thread of the stream fills its own fixed size chunk and writes it out when it is full, so the heap
+ * only ever holds one chunk per thread however many bookings there are. For a parallel stream the lines
+ * end up in no particular order, which the import does not mind.
+ */
+public final class BookingExport {
+
+	// Bytes a thread collects before it writes them out.
+	static final int CHUNK_BYTES = 64 * 1024;
+
+	private static final byte[] HEADER = "bookingRef,roomNum,checkIn,checkOut\n".getBytes(StandardCharsets.US_ASCII);
+
+	// Longest line apart from the reference: three ints with their sign, three commas and the line end.
+	private static final int MAX_NUMBERS_BYTES = 3 * 11 + 4;
+
+	private final FileChannel channel;
+
+	// The chunk each thread is filling.
+	private final Map<Thread, ByteBuffer> chunks = new ConcurrentHashMap<Thread, ByteBuffer>();
+
+	private final LongAdder written = new LongAdder();
+
+	private BookingExport(FileChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * Writes the stays to the file, replacing it. Works the stream down as it goes, it may be parallel.
+	 * @return The number of stays written
+	 * @throws IOException if the file can not be written
+	 */
+	public static long write(Stream<BookedStay> stays, Path file) throws IOException {
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			return write(stays, channel);
+		}
+	}
+
+	/**
+	 * Adds the stays to the end of the file, a new file starts with the header. Returns once they are on disk.
+	 * @return The number of stays written
+	 * @throws IOException if the file can not be written
+	 */
+	public static long append(Stream<BookedStay> stays, Path file) throws IOException {
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+			long written = write(stays, channel);
+			channel.force(false);
+			return written;
+		}
+	}
+
+	private static long write(Stream<BookedStay> stays, FileChannel channel) throws IOException {
+		BookingExport export = new BookingExport(channel);
+		if(channel.size() == 0) {
+			export.writeOut(ByteBuffer.wrap(HEADER));
+		}
+		try {
+			stays.forEach(export::add);
+		}
+		catch(UncheckedIOException e) {
+			throw e.getCause();
+		}
+		for(ByteBuffer chunk : export.chunks.values()) {
+			export.flush(chunk);
+		}
+		return export.written.sum();
+	}
+
+	private void add(BookedStay stay) {
+		byte[] ref = escape(stay.getBookingRef().getBytes(StandardCharsets.UTF_8));
+		int needed = ref.length + MAX_NUMBERS_BYTES;
+		ByteBuffer chunk = chunks.computeIfAbsent(Thread.currentThread(), thread -> ByteBuffer.allocate(CHUNK_BYTES));
+		if(chunk.remaining() < needed) {
+			flush(chunk);
+			if(needed > chunk.capacity()) {
+				// a reference longer than a chunk gets a buffer of its own.
+				chunk = ByteBuffer.allocate(needed);
+				put(chunk, ref, stay);
+				flush(chunk);
+				written.increment();
+				return;
+			}
+		}
+		put(chunk, ref, stay);
+		written.increment();
+	}
+
+	/**
+	 * Escapes the backslashes and line breaks of a reference, most references have none and are returned as they are.
+	 */
+	static byte[] escape(byte[] ref) {
+		int extra = 0;
+		for(byte b : ref) {
+			if(b == '\\' || b == '\n' || b == '\r') {
+				extra++;
+			}
+		}
+		if(extra == 0) {
+			return ref;
+		}
+		byte[] escaped = new byte[ref.length + extra];
+		int next = 0;
+		for(byte b : ref) {
+			if(b == '\\' || b == '\n' || b == '\r') {
+				escaped[next++] = '\\';
+				escaped[next++] = b == '\n' ? (byte) 'n' : b == '\r' ? (byte) 'r' : b;
+			}
+			else {
+				escaped[next++] = b;
+			}
+		}
+		return escaped;
+	}
+
+	private static void put(ByteBuffer chunk, byte[] ref, BookedStay stay) {
+		chunk.put(ref).put((byte) ',');
+		putInt(chunk, stay.getRoomNum());
+		chunk.put((byte) ',');
+		putInt(chunk, stay.getCheckIn());
+		chunk.put((byte) ',');
+		putInt(chunk, stay.getCheckOut());
+		chunk.put((byte) '\n');
+	}
+
+	/**
+	 * Puts the decimal digits of the value without making a string.
+	 */
+	private static void putInt(ByteBuffer chunk, int value) {
+		long rest = value;
+		if(rest < 0) {
+			chunk.put((byte) '-');
+			rest = -rest;
+		}
+		long divisor = 1;
+		while(divisor * 10 <= rest) {
+			divisor *= 10;
+		}
+		for(; divisor > 0; divisor /= 10) {
+			chunk.put((byte) ('0' + rest / divisor % 10));
+		}
+	}
+
+	private void flush(ByteBuffer chunk) {
+		chunk.flip();
+		try {
+			writeOut(chunk);
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		chunk.clear();
+	}
+
+	private void writeOut(ByteBuffer bytes) throws IOException {
+		// whole chunks go out one at a time, so the lines of two threads never mix.
+		synchronized(channel) {
+			while(bytes.hasRemaining()) {
+				channel.write(bytes);
+			}
+		}
+	}
+}
@@ -0,0 +1,632 @@
+package hotelSystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Bulk import of existing bookings from a CSV file, made by Hotel.importBookings when moving a property over.
+ *
+ * Every line is one stay of a booking: bookingRef,roomNum,checkIn,checkOut with the check-out day not booked.
+ * A booking with several rooms or stays has a line for each, a header line and empty lines are skipped.
+ * The reference is everything before the last three commas, so it may hold commas. A backslash in it starts
+ * an escape as BookingExport writes them: \\ for a backslash, \n and \r for the line breaks.
+ *
+ * The file is memory mapped and parsed in chunks in parallel, the stays are sorted out by room and then
+ * every room is checked and filled in by one worker in a single step, nothing goes through bookRoom.
+ * A booking is imported whole or not at all, it is rejected if:
+ * - one of its rooms is not in the hotel or one of its stays does not end after it starts
+ * - its reference is already booked in the hotel
+ * - one of its stays overlaps a booked stay of the room, or the imported stay of another booking checking in
+ *   earlier, or on the same day but on an earlier line. The stay it loses to is kept even if its own booking
+ *   is rejected for another reason
+ * - it does not have the same stays in all its rooms, as every booking of the hotel does
+ */
+public final class BookingImport {
+
+	// Chunks per thread, more than one so a thread that is done early can take another.
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	// Largest chunk, a memory mapping can not be larger than 2 GB.
+	private static final long MAX_CHUNK_BYTES = 1L << 30;
+
+	private final Hotel hotel;
+	private final Path file;
+	private final int threads;
+
+	// The stays of the file sorted out by room index, those of room r are from roomStart[r] to roomStart[r + 1].
+	// They are in file order after read and the accepted ones, roomCount[r] of them, in check-in order after check.
+	private int[] roomStart;
+	private int[] roomCount;
+	private int[] bookingIds;
+	private int[] checkIns;
+	private int[] checkOuts;
+
+	// Indexed by booking id, set for the bookings that are not imported.
+	// The workers only ever set entries to true, so they need no locking.
+	private boolean[] rejected;
+
+	// Indexed by booking id, the imported bookings. Null for the ids that are not imported.
+	Booking[] bookings;
+	private int importedBookings;
+
+	// The references of the rejected bookings, taken before their ids are forgotten.
+	private final List<String> rejectedRefs = new ArrayList<String>();
+
+	// The ids the chunks had interned when reading the file failed, null after a good read.
+	private int[] readIds;
+
+	private long lines;
+
+	BookingImport(Hotel hotel, Path file, int threads) {
+		this.hotel = hotel;
+		this.file = file;
+		this.threads = threads;
+	}
+
+	/**
+	 * Gets the number of stay lines read from the file.
+	 */
+	public long getLines() {
+		return lines;
+	}
+
+	/**
+	 * Gets the number of bookings that were imported.
+	 */
+	public int getImportedBookings() {
+		return importedBookings;
+	}
+
+	/**
+	 * Gets the references of the bookings that were not imported.
+	 */
+	public List<String> getRejectedRefs() {
+		return rejectedRefs;
+	}
+
+	/**
+	 * Parses the file and sorts the stays out by room. Does not touch the rooms, so no lock is needed.
+	 * @throws IOException if the file can not be read or a line is malformed
+	 */
+	void read() throws IOException {
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			int chunkCount = (int) Math.max(threads * CHUNKS_PER_THREAD, size / MAX_CHUNK_BYTES + 1);
+			long start = 0;
+			for(int c = 1; c <= chunkCount; c++) {
+				long end = c == chunkCount ? size : lineStartFrom(channel, Math.max(start, size * c / chunkCount));
+				chunks.add(new Chunk(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start), start));
+				start = end;
+			}
+		}
+		try {
+			runAll(chunks);
+		}
+		catch(IOException | RuntimeException e) {
+			// keep the ids interned so far, forgetUnbooked drops them again.
+			readIds = new int[0];
+			for(Chunk chunk : chunks) {
+				int from = readIds.length;
+				readIds = Arrays.copyOf(readIds, from + chunk.size + chunk.rejectedCount);
+				System.arraycopy(chunk.ids, 0, readIds, from, chunk.size);
+				System.arraycopy(chunk.rejectedIds, 0, readIds, from + chunk.size, chunk.rejectedCount);
+			}
+			throw e;
+		}
+
+		// every reference of the file is interned by now, the ids are below the dictionary size.
+		rejected = new boolean[hotel.refs.size()];
+		int roomTotal = hotel.rooms.length;
+		roomStart = new int[roomTotal + 1];
+		for(Chunk chunk : chunks) {
+			lines += chunk.lines;
+			for(int i = 0; i < chunk.rejectedCount; i++) {
+				rejected[chunk.rejectedIds[i]] = true;
+			}
+			for(int r = 0; r < roomTotal; r++) {
+				roomStart[r + 1] += chunk.perRoom[r];
+			}
+		}
+		for(int r = 0; r < roomTotal; r++) {
+			roomStart[r + 1] += roomStart[r];
+		}
+
+		// each chunk writes its stays to its own part of every room's range, so the file order is kept.
+		int total = roomStart[roomTotal];
+		bookingIds = new int[total];
+		checkIns = new int[total];
+		checkOuts = new int[total];
+		int[] next = Arrays.copyOf(roomStart, roomTotal);
+		List<Callable<Void>> scatters = new ArrayList<Callable<Void>>();
+		for(Chunk chunk : chunks) {
+			int[] positions = next.clone();
+			scatters.add(() -> chunk.scatter(positions));
+			for(int r = 0; r < roomTotal; r++) {
+				next[r] += chunk.perRoom[r];
+			}
+		}
+		runAll(scatters);
+	}
+
+	/**
+	 * Checks the stays against each other and the booked ones and decides which bookings are imported,
+	 * they are in bookings afterwards. The caller holds the locks of all the rooms until install is done.
+	 */
+	void check() throws IOException {
+		roomCount = new int[hotel.rooms.length];
+		runAll(roomTasks(this::check));
+		collect();
+	}
+
+	/**
+	 * Puts the bookings accepted by check into the rooms.
+	 */
+	void install() throws IOException {
+		runAll(roomTasks(this::install));
+		for(int id = 0; id < bookings.length; id++) {
+			if(bookings[id] != null) {
+				hotel.bookingRoomNums.set(id, bookings[id].roomNums);
+			}
+		}
+	}
+
+	/**
+	 * Forgets the ids the file interned for bookings that were not made: the rejected bookings, or every
+	 * reference read so far if reading failed. So the lines that are turned down do not keep a dictionary
+	 * entry for good. A reference that is booked in the hotel keeps its id. The caller holds the locks of all the rooms.
+	 */
+	void forgetUnbooked() {
+		if(readIds != null) {
+			for(int id : readIds) {
+				forgetIfUnbooked(id);
+			}
+			return;
+		}
+		for(int id = 0; id < rejected.length; id++) {
+			if(rejected[id]) {
+				rejectedRefs.add(hotel.refs.refOf(id));
+				forgetIfUnbooked(id);
+			}
+		}
+	}
+
+	private void forgetIfUnbooked(int id) {
+		if(hotel.bookingRoomNums.get(id) == null) {
+			hotel.refs.forget(id);
+		}
+	}
+
+	/**
+	 * Sorts the stays of a room by check-in day and keeps those that do not overlap, in place.
+	 */
+	private void check(int r) {
+		int from = roomStart[r];
+		int n = roomStart[r + 1] - from;
+		// check-in day in the high half and the position in the file order in the low half, so ties keep the file order.
+		long[] order = new long[n];
+		for(int i = 0; i < n; i++) {
+			order[i] = (long) checkIns[from + i] << 32 | i;
+		}
+		Arrays.sort(order);
+		int[] ids = new int[n];
+		int[] ins = new int[n];
+		int[] outs = new int[n];
+		for(int i = 0; i < n; i++) {
+			int position = from + (int) order[i];
+			ids[i] = bookingIds[position];
+			ins[i] = checkIns[position];
+			outs[i] = checkOuts[position];
+		}
+
+		RoomCalendar booked = hotel.rooms[r].calendar;
+		int accepted = 0;
+		for(int i = 0; i < n; i++) {
+			int last = from + accepted - 1;
+			if(hotel.bookingRoomNums.get(ids[i]) != null || booked.overlaps(ins[i], outs[i], BookingRefDictionary.NO_ID)) {
+				rejected[ids[i]] = true;
+			}
+			else if(accepted > 0 && bookingIds[last] == ids[i] && ins[i] <= checkOuts[last]) {
+				// the same booking again, touching or overlapping its last stay, they become one stay.
+				checkOuts[last] = Math.max(checkOuts[last], outs[i]);
+			}
+			else if(accepted > 0 && ins[i] < checkOuts[last]) {
+				rejected[ids[i]] = true;
+			}
+			else {
+				bookingIds[last + 1] = ids[i];
+				checkIns[last + 1] = ins[i];
+				checkOuts[last + 1] = outs[i];
+				accepted++;
+			}
+		}
+		roomCount[r] = accepted;
+	}
+
+	/**
+	 * Puts the stays of every booking together room by room, in room number order,
+	 * and rejects the bookings whose rooms do not all have the same stays.
+	 */
+	private void collect() {
+		// the ids are dense, an array indexed by id is smaller and faster than a map of millions of bookings.
+		bookings = new Booking[rejected.length];
+		for(int r = 0; r < hotel.rooms.length; r++) {
+			for(int i = roomStart[r]; i < roomStart[r] + roomCount[r]; i++) {
+				int id = bookingIds[i];
+				if(rejected[id]) {
+					continue;
+				}
+				if(bookings[id] == null) {
+					bookings[id] = new Booking();
+				}
+				bookings[id].add(r, hotel.sortedRoomNums[r], checkIns[i], checkOuts[i]);
+			}
+		}
+
+		for(int id = 0; id < bookings.length; id++) {
+			if(bookings[id] == null) {
+				continue;
+			}
+			if(bookings[id].finish()) {
+				importedBookings++;
+			}
+			else {
+				bookings[id] = null;
+				rejected[id] = true;
+			}
+		}
+	}
+
+	/**
+	 * Puts the stays of the imported bookings into the room.
+	 */
+	private void install(int r) {
+		int from = roomStart[r];
+		int count = 0;
+		for(int i = from; i < from + roomCount[r]; i++) {
+			if(!rejected[bookingIds[i]]) {
+				bookingIds[from + count] = bookingIds[i];
+				checkIns[from + count] = checkIns[i];
+				checkOuts[from + count] = checkOuts[i];
+				count++;
+			}
+		}
+		Stay[][] bookingStays = new Stay[count][];
+		for(int i = 0; i < count; i++) {
+			bookingStays[i] = bookings[bookingIds[from + i]].stays;
+		}
+		hotel.rooms[r].importStays(count, Arrays.copyOfRange(checkIns, from, from + count),
+				Arrays.copyOfRange(checkOuts, from, from + count), Arrays.copyOfRange(bookingIds, from, from + count), bookingStays);
+	}
+
+	/**
+	 * Splits the rooms into ranges of about the same number of stays, one task per range.
+	 */
+	private List<Callable<Void>> roomTasks(RoomStep step) {
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		int roomTotal = hotel.rooms.length;
+		long perTask = Math.max(1, roomStart[roomTotal] / ((long) threads * CHUNKS_PER_THREAD));
+		int first = 0;
+		while(first < roomTotal) {
+			int last = first + 1;
+			while(last < roomTotal && roomStart[last] - roomStart[first] < perTask) {
+				last++;
+			}
+			int from = first;
+			int to = last;
+			tasks.add(() -> {
+				for(int r = from; r < to; r++) {
+					step.run(r);
+				}
+				return null;
+			});
+			first = last;
+		}
+		return tasks;
+	}
+
+	/**
+	 * Runs the tasks on the import threads and waits for all of them, even when interrupted,
+	 * so no worker is left changing a room after the import returns.
+	 * @throws IOException the first exception of a task
+	 */
+	private void runAll(List<? extends Callable<Void>> tasks) throws IOException {
+		ExecutorService workers = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "booking-import");
+			thread.setDaemon(true);
+			return thread;
+		});
+		Throwable failure = null;
+		boolean interrupted = false;
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for(Callable<Void> task : tasks) {
+				futures.add(workers.submit(task));
+			}
+			for(Future<Void> future : futures) {
+				while(true) {
+					try {
+						future.get();
+						break;
+					}
+					catch(InterruptedException e) {
+						interrupted = true;
+					}
+					catch(ExecutionException e) {
+						if(failure == null) {
+							failure = e.getCause();
+						}
+						break;
+					}
+				}
+			}
+		}
+		finally {
+			workers.shutdown();
+			if(interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		if(failure instanceof IOException) {
+			throw (IOException) failure;
+		}
+		if(failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		}
+		if(failure instanceof Error) {
+			throw (Error) failure;
+		}
+	}
+
+	/**
+	 * Gets the position after the first line end at or after the given position, the file size if there is none.
+	 */
+	private static long lineStartFrom(FileChannel channel, long position) throws IOException {
+		ByteBuffer probe = ByteBuffer.allocate(4096);
+		long size = channel.size();
+		while(position < size) {
+			probe.clear();
+			int read = channel.read(probe, position);
+			for(int i = 0; i < read; i++) {
+				if(probe.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+			position += read;
+		}
+		return size;
+	}
+
+	/**
+	 * One step of apply for one room index.
+	 */
+	private interface RoomStep {
+		void run(int roomIndex);
+	}
+
+	/**
+	 * An imported booking while its rooms are collected.
+	 */
+	static final class Booking {
+		Stay[] stays = Stay.NONE;
+		int[] roomNums = new int[0];
+
+		private int lastRoom = -1;
+		private int seen;
+		private boolean mismatched;
+
+		/**
+		 * Adds a stay, the stays come in room order and in check-in order within a room.
+		 */
+		void add(int roomIndex, int roomNum, int checkIn, int checkOut) {
+			if(roomIndex != lastRoom) {
+				finish();
+				lastRoom = roomIndex;
+				seen = 0;
+				roomNums = Arrays.copyOf(roomNums, roomNums.length + 1);
+				roomNums[roomNums.length - 1] = roomNum;
+			}
+			if(roomNums.length == 1) {
+				// the first room sets the stays, the other rooms must have the same ones.
+				stays = Arrays.copyOf(stays, stays.length + 1);
+				stays[stays.length - 1] = new Stay(checkIn, checkOut);
+			}
+			else if(seen >= stays.length || stays[seen].checkIn != checkIn || stays[seen].checkOut != checkOut) {
+				mismatched = true;
+			}
+			seen++;
+		}
+
+		/**
+		 * Ends the current room.
+		 * @return False if the rooms do not all have the same stays
+		 */
+		boolean finish() {
+			if(roomNums.length > 1 && seen != stays.length) {
+				mismatched = true;
+			}
+			return !mismatched;
+		}
+	}
+
+	/**
+	 * The stays of one chunk of the file, in file order.
+	 */
+	private final class Chunk implements Callable<Void> {
+		private final MappedByteBuffer buffer;
+		private final long offset;
+
+		int[] perRoom = new int[hotel.rooms.length];
+		int[] rejectedIds = new int[16];
+		int rejectedCount;
+		long lines;
+
+		private int[] rooms = new int[1024];
+		int[] ids = new int[1024];
+		private int[] ins = new int[1024];
+		private int[] outs = new int[1024];
+		int size;
+
+		Chunk(MappedByteBuffer buffer, long offset) {
+			this.buffer = buffer;
+			this.offset = offset;
+		}
+
+		@Override
+		public Void call() throws IOException {
+			int limit = buffer.limit();
+			int position = 0;
+			while(position < limit) {
+				int lineEnd = position;
+				while(lineEnd < limit && buffer.get(lineEnd) != '\n') {
+					lineEnd++;
+				}
+				int end = lineEnd > position && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+				if(end > position) {
+					parse(position, end);
+				}
+				position = lineEnd + 1;
+			}
+			return null;
+		}
+
+		private void parse(int start, int end) throws IOException {
+			// the numbers come last and have no commas, the reference before them may.
+			int[] commas = new int[3];
+			int found = 0;
+			for(int i = end - 1; i >= start && found < 3; i--) {
+				if(buffer.get(i) == ',') {
+					commas[2 - found++] = i;
+				}
+			}
+			if(found != 3 || commas[0] == start) {
+				if(offset == 0 && start == 0) {
+					// the first line of the file is taken as a header.
+					return;
+				}
+				throw malformed(start);
+			}
+			if(offset == 0 && start == 0 && !isNumber(commas[0] + 1, commas[1])) {
+				return;
+			}
+
+			byte[] ref = unescape(start, commas[0]);
+			int roomNum = number(commas[0] + 1, commas[1], start);
+			int checkIn = number(commas[1] + 1, commas[2], start);
+			int checkOut = number(commas[2] + 1, end, start);
+			// interned once the line is known to be well formed, every id interned here is in ids or rejectedIds.
+			int id = hotel.refs.intern(new String(ref, StandardCharsets.UTF_8));
+			lines++;
+
+			int room = Arrays.binarySearch(hotel.sortedRoomNums, roomNum);
+			if(room < 0 || checkIn < 0 || checkOut <= checkIn) {
+				if(rejectedCount == rejectedIds.length) {
+					rejectedIds = Arrays.copyOf(rejectedIds, rejectedCount * 2);
+				}
+				rejectedIds[rejectedCount++] = id;
+				return;
+			}
+
+			if(size == rooms.length) {
+				rooms = Arrays.copyOf(rooms, size * 2);
+				ids = Arrays.copyOf(ids, size * 2);
+				ins = Arrays.copyOf(ins, size * 2);
+				outs = Arrays.copyOf(outs, size * 2);
+			}
+			rooms[size] = room;
+			ids[size] = id;
+			ins[size] = checkIn;
+			outs[size] = checkOut;
+			size++;
+			perRoom[room]++;
+		}
+
+		/**
+		 * Gets the bytes of the reference from the line with the escapes of BookingExport undone.
+		 */
+		private byte[] unescape(int from, int to) throws IOException {
+			byte[] ref = new byte[to - from];
+			int length = 0;
+			for(int i = from; i < to; i++) {
+				byte b = buffer.get(i);
+				if(b == '\\') {
+					byte escaped = ++i < to ? buffer.get(i) : 0;
+					if(escaped == 'n') {
+						b = '\n';
+					}
+					else if(escaped == 'r') {
+						b = '\r';
+					}
+					else if(escaped == '\\') {
+						b = '\\';
+					}
+					else {
+						throw malformed(from);
+					}
+				}
+				ref[length++] = b;
+			}
+			return length == ref.length ? ref : Arrays.copyOf(ref, length);
+		}
+
+		private boolean isNumber(int from, int to) {
+			for(int i = from; i < to; i++) {
+				byte b = buffer.get(i);
+				if((b < '0' || b > '9') && !(b == '-' && i == from)) {
+					return false;
+				}
+			}
+			return from < to;
+		}
+
+		private int number(int from, int to, int lineStart) throws IOException {
+			boolean negative = from < to && buffer.get(from) == '-';
+			int i = negative ? from + 1 : from;
+			if(i == to) {
+				throw malformed(lineStart);
+			}
+			long value = 0;
+			for(; i < to; i++) {
+				int digit = buffer.get(i) - '0';
+				if(digit < 0 || digit > 9 || (value = value * 10 + digit) > Integer.MAX_VALUE) {
+					throw malformed(lineStart);
+				}
+			}
+			return (int) (negative ? -value : value);
+		}
+
+		private IOException malformed(int lineStart) {
+			return new IOException("Line at byte " + (offset + lineStart) + " of " + file + " is not bookingRef,roomNum,checkIn,checkOut");
+		}
+
+		/**
+		 * Copies the stays to the room ranges of the import.
+		 * @param positions Where the next stay of each room index goes
+		 */
+		Void scatter(int[] positions) {
+			for(int i = 0; i < size; i++) {
+				int position = positions[rooms[i]]++;
+				bookingIds[position] = ids[i];
+				checkIns[position] = ins[i];
+				checkOuts[position] = outs[i];
+			}
+			// the parsed stays are not needed any more.
+			rooms = ids = ins = outs = null;
+			return null;
+		}
+	}
+}
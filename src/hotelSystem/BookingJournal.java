@@ -0,0 +1,447 @@
+package hotelSystem;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of the bookings of a hotel.
+ * Every successful book, update and cancel is appended as a binary record, on startup the hotel
+ * replays the journal to get back to the state it had before it stopped.
+ *
+ * Records are collected in memory and written by a background thread that forces them to disk
+ * in batches (group commit), one fsync covers every record appended since the previous one.
+ * If the journal is opened with waitForSync the hotel waits until its record is on disk before
+ * returning, otherwise a crash can lose the last group commit interval.
+ * Once a write fails, or the journal is closed, append turns every record down and the hotel makes no more changes.
+ * A change whose record was appended before the failure stays made, awaitDurable reports that it did not reach the disk.
+ *
+ * After a checkpoint the records it already contains are cut off the front of the journal with compact,
+ * so replaying on startup only goes through the changes made since the last checkpoint.
+ *
+ * File layout: the magic number and the sequence number of the record before the first one in the file, then records of
+ * [int payload length][int CRC32 of payload][byte type][int ref length][ref UTF-8][int stay count][check-in and check-out of each stay]
+ * [int room count][rooms]. A stay is one pair however many nights it has, like in the checkpoint.
+ * A torn record at the end of the file is dropped on replay.
+ */
+public class BookingJournal implements Closeable {
+
+	// Record types.
+	static final byte BOOK_ROOM = 1;
+	static final byte BOOK_ROOMS = 2;
+	static final byte UPDATE = 3;
+	static final byte CANCEL = 4;
+
+	private static final int MAGIC = 0x48574134; // "HWA4"
+	private static final int HEADER_SIZE = 12;
+	private static final int RECORD_HEADER_SIZE = 8;
+
+	private final Path file;
+	private final long groupCommitMillis;
+	private final boolean waitForSync;
+	private final Thread flusher;
+
+	// The open journal file, replaced by compact. Guarded by writeLock, which the flusher holds while writing.
+	private final Object writeLock = new Object();
+	private FileChannel channel;
+
+	// Number of record bytes appended since the journal was opened, and where the current file starts in those bytes.
+	// Guarded by this, fileStartBytes by writeLock.
+	private long appendedBytes;
+	private long fileStartBytes;
+
+	// Records appended but not yet written, guarded by this.
+	private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+	private ByteBuffer writing = ByteBuffer.allocate(64 * 1024);
+
+	// Sequence number of the last appended record and of the last record forced to disk, guarded by this.
+	private long appendedSeq;
+	private long durableSeq;
+
+	private boolean closed;
+	private IOException failure;
+
+	private final CRC32 crc = new CRC32();
+
+	private BookingJournal(Path file, FileChannel channel, long groupCommitMillis, boolean waitForSync) {
+		this.file = file;
+		this.channel = channel;
+		this.groupCommitMillis = groupCommitMillis;
+		this.waitForSync = waitForSync;
+		this.flusher = new Thread(this::flushLoop, "booking-journal");
+		this.flusher.setDaemon(true);
+	}
+
+	/**
+	 * Opens the journal file, creating it when it does not exist.
+	 * Pass it to the Hotel constructor, which replays it and then appends to it.
+	 * @param file The journal file
+	 * @param groupCommitMillis How long records are collected before they are forced to disk together
+	 * @param waitForSync True to make every booking wait until its record is on disk
+	 */
+	public static BookingJournal open(Path file, long groupCommitMillis, boolean waitForSync) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		if(channel.size() == 0) {
+			writeHeader(channel, 0);
+		}
+		return new BookingJournal(file, channel, groupCommitMillis, waitForSync);
+	}
+
+	private static void writeHeader(FileChannel channel, long baseSeq) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putLong(baseSeq);
+		header.flip();
+		while(header.hasRemaining()) {
+			channel.write(header, header.position());
+		}
+	}
+
+	/**
+	 * Applies every complete record of the journal after the given sequence number to the hotel,
+	 * cuts off a torn record at the end and starts appending after the last good record.
+	 * Called by the Hotel constructor before the hotel is attached to the journal.
+	 * @param hotel The hotel to apply the records to
+	 * @param skipUpTo Sequence number of the last record already in the hotel, from its checkpoint, 0 without one
+	 * @throws IOException if the file can not be read, or the records the hotel is missing were already compacted away
+	 */
+	void replayInto(Hotel hotel, long skipUpTo) throws IOException {
+		long goodEnd = HEADER_SIZE;
+		long size = channel.size();
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0)), 1 << 16));
+		if(in.readInt() != MAGIC) {
+			throw new IOException("Not a booking journal");
+		}
+		long seq = in.readLong();
+		if(seq > skipUpTo) {
+			throw new IOException("Journal starts after record " + seq + ", the checkpoint only has up to record " + skipUpTo);
+		}
+
+		byte[] payload = new byte[256];
+		while(goodEnd + RECORD_HEADER_SIZE <= size) {
+			int length;
+			int checksum;
+			try {
+				length = in.readInt();
+				checksum = in.readInt();
+				if(length <= 0 || goodEnd + RECORD_HEADER_SIZE + length > size) {
+					break;
+				}
+				if(payload.length < length) {
+					payload = new byte[Math.max(length, payload.length * 2)];
+				}
+				in.readFully(payload, 0, length);
+			}
+			catch(EOFException e) {
+				break;
+			}
+
+			crc.reset();
+			crc.update(payload, 0, length);
+			if((int) crc.getValue() != checksum) {
+				// torn or corrupt write, everything after it is ignored.
+				break;
+			}
+			seq++;
+			if(seq > skipUpTo) {
+				apply(hotel, ByteBuffer.wrap(payload, 0, length));
+			}
+			goodEnd += RECORD_HEADER_SIZE + length;
+		}
+
+		channel.truncate(goodEnd);
+		channel.position(goodEnd);
+		appendedSeq = seq;
+		durableSeq = seq;
+		appendedBytes = goodEnd - HEADER_SIZE;
+		flusher.start();
+	}
+
+	private static void apply(Hotel hotel, ByteBuffer record) {
+		byte type = record.get();
+		byte[] refBytes = new byte[record.getInt()];
+		record.get(refBytes);
+		String bookingRef = new String(refBytes, StandardCharsets.UTF_8);
+		Stay[] stays = new Stay[record.getInt()];
+		for(int i = 0; i < stays.length; i++) {
+			stays[i] = new Stay(record.getInt(), record.getInt());
+		}
+		int[] roomNums = readInts(record);
+
+		try {
+			switch(type) {
+				case BOOK_ROOM:
+					hotel.bookRoom(bookingRef, stays, roomNums[0]);
+					break;
+				case BOOK_ROOMS:
+					hotel.bookRooms(bookingRef, stays, roomNums);
+					break;
+				case UPDATE:
+					hotel.updateBooking(bookingRef, stays, roomNums);
+					break;
+				case CANCEL:
+					hotel.cancelBooking(bookingRef);
+					break;
+				default:
+					throw new IllegalStateException("Unknown journal record type " + type);
+			}
+		}
+		catch(NoSuchBookingException e) {
+			// the record was written once the operation was known to succeed, so replaying it in order can not fail.
+			throw new IllegalStateException("Journal does not match the hotel", e);
+		}
+	}
+
+	private static int[] readInts(ByteBuffer record) {
+		int[] values = new int[record.getInt()];
+		for(int i = 0; i < values.length; i++) {
+			values[i] = record.getInt();
+		}
+		return values;
+	}
+
+	/**
+	 * Appends a record. The hotel calls this while it still holds the locks of the rooms involved,
+	 * so the records of a room are in the same order as the changes to the room.
+	 * @return The sequence number of the record, to pass to awaitDurable
+	 * @throws UncheckedIOException if an earlier batch could not be written, nothing is appended after that
+	 */
+	long append(byte type, String bookingRef, Stay[] stays, int[] roomNums) {
+		byte[] refBytes = bookingRef.getBytes(StandardCharsets.UTF_8);
+		int length = 1 + 4 + refBytes.length + 4 + 8 * stays.length + 4 + 4 * roomNums.length;
+
+		synchronized(this) {
+			if(closed) {
+				throw new IllegalStateException("Journal is closed");
+			}
+			if(failure != null) {
+				// the flusher has stopped, a record appended now would never reach the disk.
+				throw new UncheckedIOException("Booking journal write failed", failure);
+			}
+			ensureCapacity(RECORD_HEADER_SIZE + length);
+
+			// the CRC is filled in once the payload is in the buffer.
+			int start = pending.position();
+			pending.putInt(length).putInt(0);
+			pending.put(type).putInt(refBytes.length).put(refBytes);
+			pending.putInt(stays.length);
+			for(Stay stay : stays) {
+				pending.putInt(stay.checkIn).putInt(stay.checkOut);
+			}
+			pending.putInt(roomNums.length);
+			for(int roomNum : roomNums) {
+				pending.putInt(roomNum);
+			}
+			crc.reset();
+			crc.update(pending.array(), start + RECORD_HEADER_SIZE, length);
+			pending.putInt(start + 4, (int) crc.getValue());
+
+			appendedSeq++;
+			appendedBytes += RECORD_HEADER_SIZE + length;
+			if(appendedSeq == durableSeq + 1) {
+				// first record since the last batch, the flusher is waiting for it.
+				notifyAll();
+			}
+			return appendedSeq;
+		}
+	}
+
+	/**
+	 * Waits until the record with the given sequence number is on disk, if the journal was opened with waitForSync.
+	 */
+	void awaitDurable(long seq) {
+		if(waitForSync) {
+			waitForDisk(seq);
+		}
+	}
+
+	private void waitForDisk(long seq) {
+		synchronized(this) {
+			boolean interrupted = false;
+			while(durableSeq < seq && failure == null && !closed) {
+				try {
+					wait();
+				}
+				catch(InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if(interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			if(durableSeq < seq && failure != null) {
+				throw new UncheckedIOException("Booking journal write failed", failure);
+			}
+		}
+	}
+
+	/**
+	 * Gets the position after the last appended record.
+	 * The hotel takes it while it holds all the room locks, so it matches the state of a checkpoint.
+	 */
+	synchronized Mark mark() {
+		return new Mark(appendedSeq, appendedBytes);
+	}
+
+	/**
+	 * Drops the records up to the mark from the front of the journal, once a checkpoint containing them is on disk.
+	 * The records after the mark are copied to a new file which then atomically replaces the journal.
+	 */
+	void compact(Mark mark) throws IOException {
+		Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+
+		// the records up to the mark must be in the file before we can cut them off.
+		waitForDisk(mark.seq);
+
+		synchronized(writeLock) {
+			if(mark.bytes <= fileStartBytes) {
+				// already compacted up to here.
+				return;
+			}
+			FileChannel next = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			try {
+				writeHeader(next, mark.seq);
+
+				// only the records written since the mark are copied, the ones still pending go to the new file.
+				long from = HEADER_SIZE + (mark.bytes - fileStartBytes);
+				long size = channel.size();
+				long copied = 0;
+				while(from + copied < size) {
+					copied += channel.transferTo(from + copied, size - from - copied, next.position(HEADER_SIZE + copied));
+				}
+				next.force(true);
+				Files.move(compacted, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch(IOException e) {
+				next.close();
+				Files.deleteIfExists(compacted);
+				throw e;
+			}
+
+			channel.close();
+			channel = next;
+			channel.position(channel.size());
+			fileStartBytes = mark.bytes;
+		}
+	}
+
+	private void ensureCapacity(int bytes) {
+		if(pending.remaining() < bytes) {
+			ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + bytes));
+			pending.flip();
+			grown.put(pending);
+			pending = grown;
+		}
+	}
+
+	/**
+	 * Background group commit: swaps the buffers, writes what was collected and forces it to disk.
+	 */
+	private void flushLoop() {
+		while(true) {
+			long batchSeq;
+			try {
+				synchronized(this) {
+					// wait for the first record of the next batch.
+					while(appendedSeq == durableSeq && !closed) {
+						wait();
+					}
+					if(appendedSeq == durableSeq) {
+						// closed and everything is on disk.
+						return;
+					}
+				}
+				if(groupCommitMillis > 0) {
+					// give other bookings the chance to join this batch.
+					Thread.sleep(groupCommitMillis);
+				}
+			}
+			catch(InterruptedException e) {
+				// only close stops us, and it does that with the closed flag.
+			}
+
+			synchronized(this) {
+				ByteBuffer full = pending;
+				pending = writing;
+				writing = full;
+				batchSeq = appendedSeq;
+			}
+
+			try {
+				synchronized(writeLock) {
+					writing.flip();
+					while(writing.hasRemaining()) {
+						channel.write(writing);
+					}
+					writing.clear();
+					channel.force(false);
+				}
+			}
+			catch(IOException e) {
+				synchronized(this) {
+					failure = e;
+					notifyAll();
+				}
+				return;
+			}
+
+			synchronized(this) {
+				durableSeq = batchSeq;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Writes the remaining records, forces them to disk and closes the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized(this) {
+			if(closed) {
+				return;
+			}
+			closed = true;
+			notifyAll();
+		}
+		if(flusher.isAlive()) {
+			try {
+				flusher.join();
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized(writeLock) {
+			channel.close();
+		}
+		if(failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * A position in the journal, the sequence number of a record and the number of record bytes up to its end.
+	 */
+	static final class Mark {
+		final long seq;
+		final long bytes;
+
+		Mark(long seq, long bytes) {
+			this.seq = seq;
+			this.bytes = bytes;
+		}
+	}
+}
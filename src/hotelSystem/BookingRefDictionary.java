@@ -0,0 +1,93 @@
+package hotelSystem;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns booking references into dense int ids, so the rooms and the booking index store and compare
+ * an int instead of hashing the reference string again at every level.
+ *
+ * Ids are handed out from 0, and the id of a forgotten reference is handed out again before a new one,
+ * so the ids stay below the largest number of references known at once however many bookings the hotel
+ * has seen. The hotel only forgets an id while it holds every room lock and nothing refers to the id any
+ * more, so an id read under a room lock keeps its meaning until that lock is released. Readers without
+ * a lock check that what they read the id from has not changed, see BookingSpliterator.
+ */
+final class BookingRefDictionary {
+
+	// Returned by idOf for a reference that was never interned.
+	static final int NO_ID = -1;
+
+	private final Map<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+	private final IdTable<String> refs = new IdTable<String>();
+
+	// Ids handed out so far and the forgotten ones that can be handed out again, a stack. Guarded by this.
+	private int nextId;
+	private int[] freeIds = new int[16];
+	private int freeCount;
+
+	/**
+	 * Gets the id of the reference, giving it the next free id if it does not have one yet.
+	 */
+	int intern(String bookingRef) {
+		Integer id = ids.get(bookingRef);
+		if(id != null) {
+			return id;
+		}
+		return ids.computeIfAbsent(bookingRef, ref -> {
+			int newId = newId();
+			// set before the id is visible in the map, so refOf always finds it.
+			refs.set(newId, ref);
+			return newId;
+		});
+	}
+
+	/**
+	 * Gets the id of the reference without interning it.
+	 * @return The id, NO_ID if the reference is unknown
+	 */
+	int idOf(String bookingRef) {
+		Integer id = ids.get(bookingRef);
+		return id == null ? NO_ID : id;
+	}
+
+	/**
+	 * Gets the reference of an id handed out by intern.
+	 */
+	String refOf(int id) {
+		return refs.get(id);
+	}
+
+	/**
+	 * Forgets the reference of an id whose booking is gone for good, so the references of the bookings
+	 * ever made are not all kept. The id is handed out again, the reference gets a new id if it is booked again.
+	 * The caller makes sure nothing refers to the id any more.
+	 */
+	void forget(int id) {
+		String ref = refs.get(id);
+		if(ref != null) {
+			ids.remove(ref, id);
+			refs.set(id, null);
+			free(id);
+		}
+	}
+
+	/**
+	 * Gets the number of ids in use or free to be handed out again, every id is below this.
+	 */
+	synchronized int size() {
+		return nextId;
+	}
+
+	private synchronized int newId() {
+		return freeCount > 0 ? freeIds[--freeCount] : nextId++;
+	}
+
+	private synchronized void free(int id) {
+		if(freeCount == freeIds.length) {
+			freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+		}
+		freeIds[freeCount++] = id;
+	}
+}
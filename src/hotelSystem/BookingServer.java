@@ -0,0 +1,186 @@
+package hotelSystem;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Serves a hotel to clients over a local TCP socket, with one (virtual) thread per connection.
+ *
+ * The protocol is one request per line and one response line per request.
+ * Days and room lists are comma separated, "a-b" is the range of days from a to b.
+ * A list may hold up to MAX_LIST_LENGTH numbers once its ranges are expanded.
+ *
+ *   BOOKED room days                 OK true|false
+ *   ROOMSBOOKED rooms days           OK true|false
+ *   BOOK ref room days               OK true|false
+ *   BOOKROOMS ref rooms days         OK true|false
+ *   UPDATE ref rooms days            OK true|false
+ *   CANCEL ref                       OK
+ *
+ * Any failure is answered with "ERR " and a message, an unknown booking reference with "ERR NOSUCHBOOKING ref".
+ */
+public class BookingServer implements Closeable {
+
+	// Most numbers a day or room list may expand to, far more than a stay or a group booking needs.
+	// Checked before the list is made, so a request like "0-2000000000" is turned down instead of filling the heap.
+	static final int MAX_LIST_LENGTH = 1 << 16;
+
+	private final BookingEngine hotel;
+	private final ServerSocket serverSocket;
+	private final ExecutorService connections = VirtualThreads.newThreadPerTaskExecutor();
+	private final Thread acceptor;
+
+	/**
+	 * Starts serving the hotel on the loopback address.
+	 * @param hotel The hotel to serve
+	 * @param port The port to listen on, 0 for any free port
+	 */
+	public BookingServer(BookingEngine hotel, int port) throws IOException {
+		this.hotel = hotel;
+		this.serverSocket = new ServerSocket(port, 4096, InetAddress.getLoopbackAddress());
+		this.acceptor = new Thread(this::acceptLoop, "booking-server");
+		this.acceptor.setDaemon(true);
+		this.acceptor.start();
+	}
+
+	/**
+	 * Gets the port the server listens on.
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	private void acceptLoop() {
+		while(!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				connections.execute(() -> serve(socket));
+			}
+			catch(IOException e) {
+				// the server socket was closed.
+			}
+		}
+	}
+
+	/**
+	 * Answers the requests of one connection until the client closes it.
+	 */
+	private void serve(Socket socket) {
+		try(Socket connection = socket;
+				BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+				Writer out = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8))) {
+			connection.setTcpNoDelay(true);
+			String request;
+			while((request = in.readLine()) != null) {
+				out.write(handle(request));
+				out.write('\n');
+				// only flush when the client has not already sent the next request.
+				if(!in.ready()) {
+					out.flush();
+				}
+			}
+		}
+		catch(SocketException e) {
+			// the client went away.
+		}
+		catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Runs one request line against the hotel.
+	 * @return The response line, without the line break
+	 */
+	String handle(String request) {
+		String[] parts = request.trim().split("\\s+");
+		try {
+			switch(parts[0].toUpperCase()) {
+				case "BOOKED":
+					return "OK " + hotel.roomBooked(parseList(parts[2]), Integer.parseInt(parts[1]));
+				case "ROOMSBOOKED":
+					return "OK " + hotel.roomsBooked(parseList(parts[2]), parseList(parts[1]));
+				case "BOOK":
+					return "OK " + hotel.bookRoom(parts[1], parseList(parts[3]), Integer.parseInt(parts[2]));
+				case "BOOKROOMS":
+					return "OK " + hotel.bookRooms(parts[1], parseList(parts[3]), parseList(parts[2]));
+				case "UPDATE":
+					return "OK " + hotel.updateBooking(parts[1], parseList(parts[3]), parseList(parts[2]));
+				case "CANCEL":
+					hotel.cancelBooking(parts[1]);
+					return "OK";
+				default:
+					return "ERR unknown request " + parts[0];
+			}
+		}
+		catch(NoSuchBookingException e) {
+			return "ERR NOSUCHBOOKING " + parts[1];
+		}
+		catch(RuntimeException e) {
+			// bad numbers, missing arguments, unknown rooms.
+			return "ERR " + e;
+		}
+	}
+
+	/**
+	 * Parses "1,2,5-8" into the numbers 1, 2, 5, 6, 7 and 8.
+	 * @throws IllegalArgumentException if a range ends before it starts or the list is longer than MAX_LIST_LENGTH
+	 */
+	static int[] parseList(String text) {
+		String[] items = text.split(",");
+		long count = 0;
+		for(String item : items) {
+			int dash = item.indexOf('-', 1);
+			if(dash < 0) {
+				count++;
+				continue;
+			}
+			long from = Integer.parseInt(item.substring(0, dash));
+			long to = Integer.parseInt(item.substring(dash + 1));
+			if(to < from) {
+				throw new IllegalArgumentException("Range " + item + " ends before it starts");
+			}
+			count += to - from + 1;
+		}
+		if(count > MAX_LIST_LENGTH) {
+			throw new IllegalArgumentException("List of " + count + " numbers is longer than " + MAX_LIST_LENGTH);
+		}
+
+		int[] values = new int[(int) count];
+		int next = 0;
+		for(String item : items) {
+			int dash = item.indexOf('-', 1);
+			if(dash < 0) {
+				values[next++] = Integer.parseInt(item);
+			}
+			else {
+				// counted in a long, a range up to Integer.MAX_VALUE would never end otherwise.
+				long to = Integer.parseInt(item.substring(dash + 1));
+				for(long value = Integer.parseInt(item.substring(0, dash)); value <= to; value++) {
+					values[next++] = (int) value;
+				}
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Stops accepting connections and closes the server socket, open connections are left to finish.
+	 */
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+		connections.shutdown();
+	}
+}
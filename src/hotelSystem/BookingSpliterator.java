@@ -0,0 +1,139 @@
+package hotelSystem;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Walks the stays of a hotel room by room straight off the room calendars, so nothing is copied up front
+ * and one BookedStay is made at a time. Splits by halving the rooms left and, once a single room is left,
+ * by halving the stays of its calendar, so a parallel stream gets even parts for any mix of rooms.
+ *
+ * Weakly consistent: every room is read from the calendar it has when the walk gets to it, so the stays
+ * of one room are always a state that room was in, but a booking changed during the walk can be seen
+ * before the change in one room and after it in another.
+ *
+ * Booking ids are handed out again once rollHorizon has forgotten them, so the references of a room are looked up
+ * when the room is opened and kept only if the room still has the same calendar afterwards: an id can only be
+ * forgotten after the calendars that hold it have been replaced.
+ */
+final class BookingSpliterator implements Spliterator<BookedStay> {
+
+	private final Room[] rooms;
+	private final BookingRefDictionary refs;
+
+	// Rooms still to walk, from room up to toRoom. While calendar is set the walk is in room,
+	// at the stays from index up to end.
+	private int room;
+	private final int toRoom;
+	private RoomCalendar calendar;
+	private String[] calendarRefs;
+	private int index;
+	private int end;
+
+	private long estimate;
+
+	BookingSpliterator(Room[] rooms, BookingRefDictionary refs) {
+		this(rooms, refs, 0, rooms.length, null, null, 0, 0, totalStays(rooms));
+	}
+
+	private BookingSpliterator(Room[] rooms, BookingRefDictionary refs, int room, int toRoom,
+			RoomCalendar calendar, String[] calendarRefs, int index, int end, long estimate) {
+		this.rooms = rooms;
+		this.refs = refs;
+		this.room = room;
+		this.toRoom = toRoom;
+		this.calendar = calendar;
+		this.calendarRefs = calendarRefs;
+		this.index = index;
+		this.end = end;
+		this.estimate = estimate;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super BookedStay> action) {
+		while(true) {
+			if(calendar != null) {
+				if(index < end) {
+					action.accept(new BookedStay(calendarRefs[index], rooms[room].number, calendar.checkIn(index), calendar.checkOut(index)));
+					index++;
+					return true;
+				}
+				calendar = null;
+				calendarRefs = null;
+				room++;
+			}
+			if(room >= toRoom) {
+				return false;
+			}
+			open();
+		}
+	}
+
+	@Override
+	public Spliterator<BookedStay> trySplit() {
+		int firstUnread = calendar == null ? room : room + 1;
+		if(toRoom - firstUnread >= 2 || (calendar != null && toRoom - firstUnread == 1)) {
+			// the first half of the rooms goes to the new part, with the room being walked if there is one.
+			int mid = (firstUnread + toRoom) >>> 1;
+			BookingSpliterator prefix = new BookingSpliterator(rooms, refs, room, mid, calendar, calendarRefs, index, end, estimate / 2);
+			room = mid;
+			calendar = null;
+			calendarRefs = null;
+			estimate -= prefix.estimate;
+			return prefix;
+		}
+
+		if(room >= toRoom) {
+			return null;
+		}
+		if(calendar == null) {
+			open();
+		}
+		if(end - index < 2) {
+			return null;
+		}
+		int mid = (index + end) >>> 1;
+		BookingSpliterator prefix = new BookingSpliterator(rooms, refs, room, room + 1, calendar, calendarRefs, index, mid, mid - index);
+		index = mid;
+		estimate = end - index;
+		return prefix;
+	}
+
+	@Override
+	public long estimateSize() {
+		return calendar != null && toRoom == room + 1 ? end - index : estimate;
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | NONNULL;
+	}
+
+	/**
+	 * Starts walking the current room at the calendar it has now, with the references of its bookings.
+	 */
+	private void open() {
+		RoomCalendar current;
+		String[] currentRefs;
+		do {
+			current = rooms[room].calendar;
+			currentRefs = new String[current.size()];
+			for(int i = 0; i < currentRefs.length; i++) {
+				currentRefs[i] = refs.refOf(current.bookingId(i));
+			}
+			// changed meanwhile, an id may have been forgotten and handed out again.
+		} while(rooms[room].calendar != current);
+		calendar = current;
+		calendarRefs = currentRefs;
+		index = 0;
+		end = calendar.size();
+	}
+
+	private static long totalStays(Room[] rooms) {
+		long total = 0;
+		for(Room room : rooms) {
+			total += room.calendar.size();
+		}
+		return total;
+	}
+}
@@ -0,0 +1,65 @@
+package hotelSystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Rolls the calendar horizon of a hotel forward in the background at a fixed interval,
+ * so the ended bookings and the past days are archived and dropped and the memory does not grow with time.
+ */
+public class CalendarRoller implements Closeable {
+
+	private final Hotel hotel;
+	private final Path archive;
+	private final IntSupplier today;
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * Starts rolling, the first roll is done right away.
+	 * @param hotel The hotel to roll
+	 * @param archive The CSV file the ended bookings are appended to
+	 * @param today Gives the current day, in the days the bookings use
+	 * @param intervalMillis Time between the end of one roll and the start of the next
+	 */
+	public CalendarRoller(Hotel hotel, Path archive, IntSupplier today, long intervalMillis) {
+		this.hotel = hotel;
+		this.archive = archive;
+		this.today = today;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "hotel-calendar-roll");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(this::roll, 0, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void roll() {
+		try {
+			hotel.rollHorizon(today.getAsInt(), archive);
+		}
+		catch(IOException | RuntimeException e) {
+			// keep going, the next roll archives whatever this one did not remove.
+			// an exception let out of here would silently cancel all the rolls to come.
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Stops rolling, waiting for a running roll to finish.
+	 */
+	@Override
+	public void close() {
+		scheduler.shutdown();
+		try {
+			scheduler.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package hotelSystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a checkpoint of a hotel in the background at a fixed interval,
+ * so a restart only has to load the checkpoint and replay the journal written since.
+ */
+public class Checkpointer implements Closeable {
+
+	private final Hotel hotel;
+	private final Path file;
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * Starts checkpointing.
+	 * @param hotel The hotel to checkpoint
+	 * @param file The checkpoint file, give the same one to the Hotel constructor on restart
+	 * @param intervalMillis Time between the end of one checkpoint and the start of the next
+	 */
+	public Checkpointer(Hotel hotel, Path file, long intervalMillis) {
+		this.hotel = hotel;
+		this.file = file;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "hotel-checkpoint");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(this::checkpoint, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void checkpoint() {
+		try {
+			hotel.checkpoint(file);
+		}
+		catch(IOException | RuntimeException e) {
+			// keep going, the journal still has everything and the next checkpoint may succeed.
+			// an exception let out of here would silently cancel all the checkpoints to come.
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Stops checkpointing, waiting for a running checkpoint to finish.
+	 */
+	@Override
+	public void close() {
+		scheduler.shutdown();
+		try {
+			scheduler.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package hotelSystem;
+
+/**
+ * Helpers for arrays of days.
+ */
+final class Days {
+
+	static final int[] NONE = new int[0];
+
+	private Days() {
+	}
+
+	/**
+	 * Converts the boxed days to a primitive array.
+	 * @param days The days, may be null
+	 * @return The same days, an empty array for null
+	 */
+	static int[] unbox(Integer[] days) {
+		if(days == null || days.length == 0) {
+			return NONE;
+		}
+		int[] unboxed = new int[days.length];
+		for(int i = 0; i < days.length; i++) {
+			unboxed[i] = days[i];
+		}
+		return unboxed;
+	}
+
+	/**
+	 * Gets the days of the half-open interval [checkIn, checkOut).
+	 * @throws IllegalArgumentException if check-in is negative or check-out is not after check-in
+	 */
+	static int[] range(int checkIn, int checkOut) {
+		return Stay.toDays(Stay.of(checkIn, checkOut));
+	}
+}
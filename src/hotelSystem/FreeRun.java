@@ -0,0 +1,50 @@
+package hotelSystem;
+
+/**
+ * Free days of a room long enough for a stay, as found by Hotel.findFreeRuns.
+ * The stay can check in on any day from getFrom up to getLastCheckIn.
+ */
+public final class FreeRun {
+
+	private final int roomNum;
+	private final int from;
+	private final int to;
+	private final int nights;
+
+	FreeRun(int roomNum, int from, int to, int nights) {
+		this.roomNum = roomNum;
+		this.from = from;
+		this.to = to;
+		this.nights = nights;
+	}
+
+	public int getRoomNum() {
+		return roomNum;
+	}
+
+	/**
+	 * Gets the first free day of the run.
+	 */
+	public int getFrom() {
+		return from;
+	}
+
+	/**
+	 * Gets the day after the last free day of the run, it is booked or outside the searched window.
+	 */
+	public int getTo() {
+		return to;
+	}
+
+	/**
+	 * Gets the last day the stay can check in and still leave by getTo.
+	 */
+	public int getLastCheckIn() {
+		return to - nights;
+	}
+
+	@Override
+	public String toString() {
+		return "room " + roomNum + " free [" + from + ", " + to + ")";
+	}
+}
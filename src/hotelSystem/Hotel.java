@@ -1,364 +1,1271 @@
-package hotelSystem;
-
-import java.util.ArrayList;
-//import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Semaphore;
-
-public class Hotel 
-{
-		// Maps the room number with the room object.
-		Map<Integer, Room> roomMap = new ConcurrentHashMap<Integer, Room>();
-	    
-		// Maps the reference with the list of the room numbers that booking reference represents.
-		Map<String, List<Integer>> bookingRefRoomNumMap = new ConcurrentHashMap<String, List<Integer>>();
-	    
-	    Semaphore lock = new Semaphore(1);	    	    
-	    
-	    /**
-	     * Class Constructor Method
-	     * @param roomNums Array of rooms which Hotel contains
-	     */
-	    public Hotel(int[] roomNums)
-	    {
-	    	for(int roomNumber : roomNums)
-	    	{
-	    		roomMap.put(roomNumber, new Room(roomNumber));
-	    	}
-	    }
-	    
-	    /**
-	     * Checks if the room is already booked for given days array
-	     * @param days Array of days to check
-	     * @param roomNumber Room number
-	     * @return A value indicating if (even for a single day in given array) room is already booked. True means its booked, false otherwise
-	     */
-	    public boolean roomBooked(Integer[] days, int roomNumber)
-	    {
-	    	if(days == null || days.length == 0)
-	    	{
-	            // if no days are given then there is nothing to check.
-	            // return early.
-	    		return false;
-	    	}
-	    	
-	    	// get the room object using given room number.
-	    	// It is assumed that the passed roomNumber is valid
-	    	//roomMap.get returns the value to which the specified key is mapped
-	    	Room room = roomMap.get(roomNumber);
-	    	
-	    	// Get all the days that are booked for given room.
-	    	Set<Integer> bookedDays = new HashSet<Integer>();    	
-	    	bookedDays = room.getAllBookedDays();
-	    	
-	    	if(bookedDays.size() == 0)
-	    	{
-	    		// if no days are booked then there is not need to check for given days.
-	            // we can return early from this method.
-	            return false;
-	    	}
-	    	
-	    	// loop through each day and check if we have a match. 	        
-	        for (int day : days)
-	        {
-	            // bookedDays Hashset gives us constant time lookup.
-	            if (bookedDays.contains(day))
-	            {
-	                return true;
-	            }
-	        }
-
-	        // returning false means we do not find any booked room for given days.
-	        return false;    	
-	    }
-	    
-	    /**
-	     * Books the room with given booking reference for the days for the room number
-	     * @param bookingRef The booking reference to keep track of days and room
-	     * @param days Array containing the days to book
-	     * @param roomNum The room number to book
-	     * @return A value indicating if the booking was successful. True means successful, false otherwise
-	     */
-	    public boolean bookRoom(String bookingRef, Integer[] days, int roomNum)
-	    {
-	    	try 
-	    	{								
-				// using RoomBooked method to check if this room is available for given days.
-		        if (!roomBooked(days, roomNum))
-		        {
-		        	// once we are here it means we have unbooked days for this room number.
-		            // so booking this room is possible.
-
-		            // get the room object using given room number.
-		        	// It is assumed that the roomNumber is valid
-		        	
-		        	Room roomToBook = roomMap.get(roomNum);
-		        	
-		        	lock.acquire();
-		        	
-		        	// since we have already checked if this room has given days available 
-		            // we can just call it to book.
-		            roomToBook.book(bookingRef, days);
-		            
-		            // update bookingRefRoomNumMap mapper to keep track of booking reference with the rooms.
-		            // we need list of rooms because in Cancel booking method, we only have the booking reference 
-		            List<Integer> roomNumbers = new ArrayList<Integer>();
-		            roomNumbers.add(roomNum);
-		            bookingRefRoomNumMap.put(bookingRef, roomNumbers);
-		            
-		            lock.release();
-		            return true;        	
-		        }
-			} 
-	    	catch (InterruptedException e) 
-	    	{
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-	    	
-	    	lock.release();
-	        // returning false means we could not find the vacant room for given array of days.
-	        return false;
-	    }
-	    
-	    
-	    
-	    /**
-	     * Updates the existing booking
-	     * @param bookingRef The booking reference to find existing booking that needs updating
-	     * @param days The new array of days to change to
-	     * @param roomNum The room number to update the booking
-	     * @return A value indicating if the update booking was successful. True means successful, false otherwise
-	     * @throws NoSuchBookingException
-	     */
-	    public boolean updateBooking(String bookingRef, Integer[] days, int roomNum) throws NoSuchBookingException
-	    {
-	    	
-	    	try 
-	    	{								
-				if(!bookingRefRoomNumMap.containsKey(bookingRef))
-		    	{
-		    		// throw NoSuchBookingException if the reference is not found.
-		        	throw new NoSuchBookingException(bookingRef);
-		    	}
-		    	
-		    	// Get the room object that needs updating.
-		    	Room roomToUpdate = roomMap.get(roomNum);
-		    	
-		    	// check if we can update the rooms for given reference and room number.
-		    	if(canUpdate(bookingRef, days, roomNum))
-		    	{
-		    		lock.acquire();
-		    		
-		    		// updating the existing booking.
-		            roomToUpdate.book(bookingRef, days);
-		            
-		            lock.release();
-		            return true;
-		    	}
-			} 
-	    	catch (InterruptedException e) 
-	    	{
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-	    	
-	    	
-	    	lock.release();    	
-	    	return false;
-	    }
-	    
-	    /**
-	     * Cancels the existing booking, removes it from the system
-	     * @param bookingRef The booking reference to remove
-	     * @throws NoSuchBookingException
-	     */
-	    public void cancelBooking(String bookingRef) throws NoSuchBookingException 
-	    {
-	    	try 
-	    	{								
-				// Check if given booking reference is a valid one.
-		        if (!bookingRefRoomNumMap.containsKey(bookingRef))
-		        {
-		            throw new NoSuchBookingException(bookingRef);
-		        }
-		        
-		        // since we are not given the room number, we have to get all those room numbers for which this booking reference was made.
-		        List<Integer> roomNums = new ArrayList<Integer>();
-		        roomNums = bookingRefRoomNumMap.get(bookingRef);
-		        
-		        lock.acquire();
-		        
-		        // loop through each room and cancel the booking.
-		        for(int nextRoomNum : roomNums)
-		        {
-		        	Room bookingToCancel = roomMap.get(nextRoomNum);
-		        	bookingToCancel.cancelBooking(bookingRef);
-		        }
-		        
-		        // once all the rooms booking is cancelled, then remove the reference from bookingRefRoomNumMap hashtable.
-		        bookingRefRoomNumMap.remove(bookingRef);
-		        
-		        lock.release();
-		        
-		        System.out.println("\n *** Booking is cancelled for ref: " + bookingRef + " ***\n");		        		        
-			} 
-	    	catch (InterruptedException e) 
-	    	{
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}	    		    		    	
-	    }
-	    
-	    /**
-	     * Checks if the specified rooms are booked for the given days
-	     * @param days The given days for booking
-	     * @param roomNums The room numbers to check for booking on particular days
-	     * @return
-	     */
-	    public boolean roomsBooked(Integer[] days, int[] roomNums)
-	    {
-	    	for(int nextRoomNum : roomNums)
-	    	{
-	    		if(this.roomBooked(days, nextRoomNum))
-	    		{
-	    			return true;
-	    		}
-	    	}
-	    	
-	    	return false;
-	    }
-	    
-	    public boolean bookRooms(String bookingRef, Integer[] days, int[] roomNums) throws NoSuchBookingException
-	    {
-	    	try 
-	    	{				
-				if(bookingRefRoomNumMap.containsKey(bookingRef)) 
-		    	{
-		    		// throw exception because bookingRef must be a new booking reference.
-		            // the client must update if existing booking reference is used.
-		    		throw new NoSuchBookingException(bookingRef);
-		    	}
-		    	
-		    	// Added list to fix HashMap's put method where we are adding
-		    	// String,List<Integer> (key,value) pair
-		    	List<Integer> roomNumsList = new ArrayList<Integer>();
-		    	
-		    	if(!roomsBooked(days, roomNums))
-		    	{
-		    		lock.acquire();
-		    		
-		    		 // this means we can book given days in given room numbers.
-		    		for(int nextRoomNum : roomNums)
-		    		{
-		    			roomNumsList.add(nextRoomNum);
-		    			Room roomToBook = roomMap.get(nextRoomNum);
-		    			roomToBook.book(bookingRef, days);
-		    		}
-		    		
-		    		bookingRefRoomNumMap.put(bookingRef, roomNumsList);
-		    		
-		    		lock.release();
-		    		return true;
-		    	}
-			} 
-	    	catch (InterruptedException e) 
-	    	{
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-	    	
-	    	
-	    	lock.release();
-	    	return false;
-	    }
-	    
-	    /**
-	     * Updates the existing booking
-	     * @param bookingRef The booking reference to find existing booking that needs updating
-	     * @param days The new array of days to change to
-	     * @param roomNums The room number to update the booking
-	     * @return A value indicating if the update booking was successful. True means successful, false otherwise
-	     * @throws NoSuchBookingException
-	     */
-	    public boolean updateBooking(String bookingRef, Integer[] days, int[] roomNums) throws NoSuchBookingException
-	    {
-	    	try 
-	    	{								
-				if(!bookingRefRoomNumMap.containsKey(bookingRef))
-		    	{
-		    		throw new NoSuchBookingException(bookingRef);
-		    	}
-		    	
-		    	// loop through the list of rooms and check if update is possible.
-		    	for(int nextRoomNum : roomNums)
-		    	{
-		    		if(!canUpdate(bookingRef, days, nextRoomNum))
-		    		{		    			
-		    			return false;
-		    		}    		
-		    	}
-		    	
-		    	lock.acquire();
-		    	
-		    	// Reaching to this part of the code means we can update, so will update all the bookings
-		    	for(int nextRoomNumber : roomNums)
-		    	{
-		    		Room roomToUpdate = roomMap.get(nextRoomNumber);
-		    		roomToUpdate.book(bookingRef, days);
-		    	}	    	
-			} 
-	    	catch (InterruptedException e) 
-	    	{
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-	    	
-	    	lock.release();
-	    	return true;
-	    }
-	   
-	    /**
-	     * Determines if existing booking can be update with given days
-	     * @param bookingRef Existing booking reference
-	     * @param days New days to update
-	     * @param roomNum A value indicating if its okay to update. True means it can be update, false otherwise
-	     * @return
-	     */
-	    private boolean canUpdate(String bookingRef, Integer[] days, int roomNum)
-	    {
-	    	Room roomToUpdate = roomMap.get(roomNum);
-	    	
-	        // Get all the booked days for roomNum room skipping this bookingRef 
-	        // because we do not want to check the booking reference that we want to update.
-	    	// HashSet<Integer> bookedWithOtherBookingRef = new HashSet<Integer>();
-	    	
-	    	Set<Integer> bookedWithOtherBookingRef = roomToUpdate.getAllBookedDays(bookingRef);
-	    	
-	    	
-	    	if(bookedWithOtherBookingRef.size() == 0)
-	    	{
-	    		// if there is nothing booked for this room, then we can update given booking reference.
-	    		return true;
-	    	}
-	    	
-	    	// bookedWithOtherBookingRef holds all the booked days for roomNum room number except bookingRef booking reference.
-	        // loop through each day from the input and check if there is any match found in the already booked days.
-	    	for(int nextDay : days)
-	    	{
-	    		if(bookedWithOtherBookingRef.contains(nextDay))
-	    		{
-	    			// we have found the match with other booking reference than the one we want to update
-	                // therefore, we cannot update this booking reference.
-	                return false;
-	    		}	    		
-	    	}	    	
-	    	// return true when there is no conflict between all the days that are booked for the room (roomNum)
-	        // and given array of days.
-	        return true;	    	
-	    }	    
+package hotelSystem;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+//import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class Hotel implements BookingEngine
+{
+		// Maps the room number with the room object.
+		Map<Integer, Room> roomMap = new ConcurrentHashMap<Integer, Room>();
+	    
+		// Turns the booking references into dense ids, the structures below are all keyed by the id.
+		final BookingRefDictionary refs = new BookingRefDictionary();
+	    
+		// Held by importBookings and rollHorizon. An import interns its references before it takes the room locks,
+		// and a roll or another import forgets ids, so they take turns and none forgets an id an import still uses.
+		private final Object idLock = new Object();
+	    
+		// Maps the booking id with the room numbers that booking reference represents.
+		// The arrays are never changed once they are in the table.
+		final IdTable<int[]> bookingRoomNums = new IdTable<int[]>();
+	    
+		// Room numbers in ascending order and the room objects in the same order.
+		// Used by room(int) to find a room without boxing the room number.
+		final int[] sortedRoomNums;
+		final Room[] rooms;
+	    
+		// Bitmaps of the booked rooms in blocks of 64 days, answers findAvailableRooms 64 rooms at a time instead of room by room.
+		final RoomAvailabilityIndex availability;
+	    
+		// Per day count of booked rooms, answers the occupancy reports without visiting every room.
+		// Only the days of a rolling horizon are counted, see rollHorizon.
+		final OccupancyCounters occupancy = new OccupancyCounters(
+				Integer.getInteger(OccupancyCounters.HORIZON_PROPERTY, OccupancyCounters.DEFAULT_HORIZON_DAYS));
+	    
+		// Answers of roomsBooked, checked against the room calendar versions. Null when turned off.
+		final AvailabilityCache availabilityCache = newAvailabilityCache();
+	    
+		// Booking requests waiting for their room to become free, see bookRoomWhenFree.
+		final Waitlist waitlist = new Waitlist(this);
+	    
+		// Latency histograms and counters of the public operations, see getMetrics.
+		final HotelMetrics metrics = new HotelMetrics(availabilityCache);
+	    
+		// Write-ahead journal of the successful changes, null when the hotel is not durable.
+		private BookingJournal journal;
+	    
+		// bookAnyRooms counts the free days a stay leaves up to this many, a gap with no stay after it counts as this many.
+		private static final long MAX_LEFTOVER_DAYS = 1 << 28;
+	    
+		// What rollHorizon found for a booking id: every stay has ended, or one has not.
+		private static final byte ENDED = 1;
+		private static final byte LIVE = 2;
+	    
+	    /**
+	     * Class Constructor Method
+	     * @param roomNums Array of rooms which Hotel contains
+	     */
+	    public Hotel(int[] roomNums)
+	    {
+	    	sortedRoomNums = Arrays.stream(roomNums).distinct().sorted().toArray();
+	    	rooms = new Room[sortedRoomNums.length];
+	    	availability = new RoomAvailabilityIndex(sortedRoomNums.length);
+	    	for(int i = 0; i < sortedRoomNums.length; i++)
+	    	{
+	    		rooms[i] = new Room(sortedRoomNums[i], i, availability, occupancy, refs);
+	    		roomMap.put(sortedRoomNums[i], rooms[i]);
+	    	}
+	    }
+	    
+	    /**
+	     * Class Constructor Method for a hotel that keeps its bookings in a journal.
+	     * The bookings already in the journal are replayed first, then every change is appended to it.
+	     * @param roomNums Array of rooms which Hotel contains
+	     * @param journal The journal to replay and append to, the caller closes it
+	     * @throws IOException if the journal can not be read
+	     */
+	    public Hotel(int[] roomNums, BookingJournal journal) throws IOException
+	    {
+	    	this(roomNums, journal, null);
+	    }
+	    
+	    /**
+	     * Class Constructor Method for a hotel that restarts from a checkpoint.
+	     * The checkpoint is loaded first, then only the journal records written after it are replayed.
+	     * @param roomNums Array of rooms which Hotel contains
+	     * @param journal The journal to replay and append to, the caller closes it. May be null
+	     * @param checkpoint The checkpoint file written by checkpoint, it is skipped if it does not exist. May be null
+	     * @throws IOException if the checkpoint or the journal can not be read
+	     */
+	    public Hotel(int[] roomNums, BookingJournal journal, Path checkpoint) throws IOException
+	    {
+	    	this(roomNums);
+	    	
+	    	long checkpointSeq = 0;
+	    	if(checkpoint != null && Files.exists(checkpoint))
+	    	{
+	    		checkpointSeq = HotelSnapshot.restore(checkpoint, this);
+	    	}
+	    	
+	    	if(journal != null)
+	    	{
+	    		// journal is still null while replaying, so the replayed bookings are not appended again.
+	    		journal.replayInto(this, checkpointSeq);
+	    		this.journal = journal;
+	    	}
+	    }
+	    
+	    /**
+	     * Checks if the room is already booked for given days array
+	     * @param days Array of days to check
+	     * @param roomNumber Room number
+	     * @return A value indicating if (even for a single day in given array) room is already booked. True means its booked, false otherwise
+	     * @throws IllegalArgumentException if a day is negative or Integer.MAX_VALUE, such a day can not be booked either
+	     */
+	    public boolean roomBooked(int[] days, int roomNumber)
+	    {
+	    	long start = System.nanoTime();
+	    	boolean booked = isRoomBooked(days, roomNumber);
+	    	metrics.record(HotelMetrics.Operation.ROOM_BOOKED, start, false);
+	    	return booked;
+	    }
+	    
+	    private boolean isRoomBooked(int[] days, int roomNumber)
+	    {
+	    	if(days == null || days.length == 0)
+	    	{
+	            // if no days are given then there is nothing to check.
+	            // return early.
+	    		return false;
+	    	}
+	    	
+	    	// get the room object using given room number.
+	    	// It is assumed that the passed roomNumber is valid
+	    	Room room = room(roomNumber);
+	    	
+	    	// the room keeps its booked stays in an immutable calendar sorted by check-in day,
+	    	// so this is one binary search per day without taking the room lock.
+	    	return room.isBooked(days);
+	    }
+	    
+	    /**
+	     * Checks if the room is already booked on any day from check-in up to, not including, check-out.
+	     * @param checkIn First day of the stay
+	     * @param checkOut Day the stay ends, must be after checkIn
+	     * @param roomNumber Room number
+	     * @return True if the room is booked for at least one of the days, false otherwise
+	     */
+	    public boolean roomBooked(int checkIn, int checkOut, int roomNumber)
+	    {
+	    	long start = System.nanoTime();
+	    	boolean booked = room(roomNumber).isBooked(checkIn, checkOut);
+	    	metrics.record(HotelMetrics.Operation.ROOM_BOOKED, start, false);
+	    	return booked;
+	    }
+	    
+	    /**
+	     * Checks if the room is booked on any day of the stays, for the waitlist.
+	     */
+	    boolean roomBooked(Stay[] stays, int roomNumber)
+	    {
+	    	long start = System.nanoTime();
+	    	boolean booked = isRoomBooked(stays, roomNumber);
+	    	metrics.record(HotelMetrics.Operation.ROOM_BOOKED, start, false);
+	    	return booked;
+	    }
+	    
+	    private boolean isRoomBooked(Stay[] stays, int roomNumber)
+	    {
+	    	// one binary search in the room's calendar per stay, however long the stay is.
+	    	return room(roomNumber).isBooked(stays);
+	    }
+	    
+	    /**
+	     * Books the room with given booking reference for the days for the room number
+	     * @param bookingRef The booking reference to keep track of days and room
+	     * @param days Array containing the days to book
+	     * @param roomNum The room number to book
+	     * @return A value indicating if the booking was successful. True means successful, false otherwise
+	     */
+	    public boolean bookRoom(String bookingRef, int[] days, int roomNum)
+	    {
+	    	long start = System.nanoTime();
+	    	boolean booked = tryBookRoom(bookingRef, Stay.of(days), roomNum);
+	    	metrics.record(HotelMetrics.Operation.BOOK_ROOM, start, !booked);
+	    	return booked;
+	    }
+	    
+	    /**
+	     * Books the room from the check-in day up to, not including, the check-out day
+	     * @param bookingRef The booking reference to keep track of days and room
+	     * @param checkIn First day of the stay
+	     * @param checkOut Day the stay ends, must be after checkIn
+	     * @param roomNum The room number to book
+	     * @return A value indicating if the booking was successful. True means successful, false otherwise
+	     */
+	    public boolean bookRoom(String bookingRef, int checkIn, int checkOut, int roomNum)
+	    {
+	    	long start = System.nanoTime();
+	    	boolean booked = tryBookRoom(bookingRef, Stay.of(checkIn, checkOut), roomNum);
+	    	metrics.record(HotelMetrics.Operation.BOOK_ROOM, start, !booked);
+	    	return booked;
+	    }
+	    
+	    /**
+	     * Books the room for the stays, for the waitlist.
+	     */
+	    boolean bookRoom(String bookingRef, Stay[] stays, int roomNum)
+	    {
+	    	long start = System.nanoTime();
+	    	boolean booked = tryBookRoom(bookingRef, stays, roomNum);
+	    	metrics.record(HotelMetrics.Operation.BOOK_ROOM, start, !booked);
+	    	return booked;
+	    }
+	    
+	    private boolean tryBookRoom(String bookingRef, Stay[] stays, int roomNum)
+	    {
+	    	// get the room object using given room number.
+	    	// It is assumed that the roomNumber is valid
+	    	Room roomToBook = room(roomNum);
+	    	
+	    	// the check and the booking are done while holding the room lock,
+	    	// so no other booking can take these days in between.
+	    	long journalSeq;
+	    	lock(roomToBook);
+	    	try
+	    	{
+		        // using RoomBooked method to check if this room is available for given days.
+		        if (isRoomBooked(stays, roomNum))
+		        {
+		        	// returning false means we could not find the vacant room for given array of days.
+		        	return false;
+		        }
+		        
+		        // the reference only gets an id once the booking is made, so turned down attempts leave nothing behind.
+		        // under the room lock rollHorizon can not forget the id before the room has it.
+		        int bookingId = refs.intern(bookingRef);
+		        
+		        // journaled before the room changes, a journal that can not take the record leaves the room as it was.
+		        journalSeq = log(BookingJournal.BOOK_ROOM, bookingRef, stays, new int[] { roomNum });
+		        
+		        // once we are here it means we have unbooked days for this room number.
+		        // so booking this room is possible.
+		        roomToBook.book(bookingId, stays);
+		        
+		        // update bookingRoomNums to keep track of booking reference with the rooms.
+		        // we need list of rooms because in Cancel booking method, we only have the booking reference 
+		        bookingRoomNums.set(bookingId, new int[] { roomNum });
+	    	}
+	    	finally
+	    	{
+	    		roomToBook.lock.unlock();
+	    	}
+	    	
+	    	awaitDurable(journalSeq);
+	    	return true;
+	    }
+	    
+	    
+	    
+	    /**
+	     * Updates the existing booking
+	     * @param bookingRef The booking reference to find existing booking that needs updating
+	     * @param days The new array of days to change to
+	     * @param roomNum The room number to update the booking
+	     * @return A value indicating if the update booking was successful. True means successful, false otherwise
+	     * @throws NoSuchBookingException
+	     */
+	    public boolean updateBooking(String bookingRef, int[] days, int roomNum) throws NoSuchBookingException
+	    {
+	    	return updateBooking(bookingRef, days, new int[] { roomNum });
+	    }
+	    
+	    /**
+	     * Cancels the existing booking, removes it from the system
+	     * @param bookingRef The booking reference to remove
+	     * @throws NoSuchBookingException
+	     */
+	    public void cancelBooking(String bookingRef) throws NoSuchBookingException 
+	    {
+	    	long start = System.nanoTime();
+	    	try
+	    	{
+	    		cancel(bookingRef);
+	    	}
+	    	catch(NoSuchBookingException e)
+	    	{
+	    		metrics.recordFailure(HotelMetrics.Operation.CANCEL_BOOKING, start);
+	    		throw e;
+	    	}
+	    	metrics.record(HotelMetrics.Operation.CANCEL_BOOKING, start, false);
+	    }
+	    
+	    private void cancel(String bookingRef) throws NoSuchBookingException
+	    {
+	    	long journalSeq;
+	    	List<Room> lockedRooms;
+	    	Stay[][] freed;
+	    	while(true)
+	    	{
+	    		// since we are not given the room number, we have to get all those room numbers for which this booking reference was made.
+	    		int bookingId = refs.idOf(bookingRef);
+	    		int[] roomNums = bookingId == BookingRefDictionary.NO_ID ? null : bookingRoomNums.get(bookingId);
+	    		
+	    		// Check if given booking reference is a valid one.
+	    		if (roomNums == null)
+	    		{
+	    			throw new NoSuchBookingException(bookingRef);
+	    		}
+	    		
+	    		lockedRooms = lockRooms(roomNums);
+	    		freed = new Stay[lockedRooms.size()][];
+	    		try
+	    		{
+	    			// a roll may have archived the booking and handed its id to another one before we got the locks,
+	    			// under them the id can not change hands, so look the reference up again.
+	    			if (refs.idOf(bookingRef) != bookingId)
+	    			{
+	    				continue;
+	    			}
+	    			
+	    			// remove the reference from bookingRoomNums first, only one caller can win this
+	    			// so the same booking is never cancelled twice. If it was cancelled in the meantime
+	    			// the next round finds no rooms, if it was moved it locks the rooms it has now.
+	    			if (!bookingRoomNums.remove(bookingId, roomNums))
+	    			{
+	    				continue;
+	    			}
+	    			
+	    			try
+	    			{
+	    				journalSeq = log(BookingJournal.CANCEL, bookingRef, Stay.NONE, Days.NONE);
+	    			}
+	    			catch(RuntimeException e)
+	    			{
+	    				// the journal did not take the record, so the booking stays as it is.
+	    				bookingRoomNums.set(bookingId, roomNums);
+	    				throw e;
+	    			}
+	    			
+	    			// loop through each room and cancel the booking.
+	    			for(int i = 0; i < lockedRooms.size(); i++)
+	    			{
+	    				freed[i] = lockedRooms.get(i).cancelBooking(bookingId);
+	    			}
+	    			break;
+	    		}
+	    		finally
+	    		{
+	    			unlockRooms(lockedRooms);
+	    		}
+	    	}
+	    	
+	    	awaitDurable(journalSeq);
+	    	offerFreedDays(lockedRooms, freed);
+	    }
+	    
+	    /**
+	     * Checks if the specified rooms are booked for the given days
+	     * @param days The given days for booking
+	     * @param roomNums The room numbers to check for booking on particular days
+	     * @return
+	     * @throws IllegalArgumentException if a day is negative or Integer.MAX_VALUE, like roomBooked
+	     */
+	    public boolean roomsBooked(int[] days, int[] roomNums)
+	    {
+	    	long start = System.nanoTime();
+	    	for(int day : days == null ? Days.NONE : days)
+	    	{
+	    		Stay.checkDay(day);
+	    	}
+	    	boolean booked = cachedRoomsBooked(days == null ? Days.NONE : days, false, roomNums);
+	    	metrics.record(HotelMetrics.Operation.ROOMS_BOOKED, start, false);
+	    	return booked;
+	    }
+	    
+	    /**
+	     * Checks if the specified rooms are booked on any day from check-in up to, not including, check-out
+	     * @param checkIn First day of the stay
+	     * @param checkOut Day the stay ends, must be after checkIn
+	     * @param roomNums The room numbers to check
+	     * @return True if any of the rooms is booked for at least one of the days, false otherwise
+	     */
+	    public boolean roomsBooked(int checkIn, int checkOut, int[] roomNums)
+	    {
+	    	long start = System.nanoTime();
+	    	Stay.check(checkIn, checkOut);
+	    	boolean booked = cachedRoomsBooked(new int[] { checkIn, checkOut }, true, roomNums);
+	    	metrics.record(HotelMetrics.Operation.ROOMS_BOOKED, start, false);
+	    	return booked;
+	    }
+	    
+	    /**
+	     * Answers roomsBooked from the availability cache when none of the rooms has changed since the answer was cached.
+	     * The answer is computed from the same calendars whose versions it is cached with,
+	     * so a booking that lands in between only makes the cached answer out of date, never wrong.
+	     * @param interval True if days holds the check-in and check-out day of a stay instead of single days
+	     */
+	    private boolean cachedRoomsBooked(int[] days, boolean interval, int[] roomNums)
+	    {
+	    	RoomCalendar[] calendars = new RoomCalendar[roomNums.length];
+	    	for(int i = 0; i < roomNums.length; i++)
+	    	{
+	    		calendars[i] = room(roomNums[i]).calendar;
+	    	}
+	    	
+	    	if(availabilityCache != null)
+	    	{
+	    		Boolean cached = availabilityCache.get(roomNums, days, interval, calendars);
+	    		if(cached != null)
+	    		{
+	    			return cached;
+	    		}
+	    	}
+	    	
+	    	boolean booked = false;
+	    	for(int i = 0; i < calendars.length && !booked; i++)
+	    	{
+	    		if(interval)
+	    		{
+	    			booked = calendars[i].overlaps(days[0], days[1], BookingRefDictionary.NO_ID);
+	    			continue;
+	    		}
+	    		for(int day : days)
+	    		{
+	    			if(calendars[i].overlaps(day, day + 1, BookingRefDictionary.NO_ID))
+	    			{
+	    				booked = true;
+	    				break;
+	    			}
+	    		}
+	    	}
+	    	
+	    	if(availabilityCache != null)
+	    	{
+	    		availabilityCache.put(roomNums, days, interval, calendars, booked);
+	    	}
+	    	return booked;
+	    }
+	    
+	    private boolean areRoomsBooked(Stay[] stays, int[] roomNums)
+	    {
+	    	for(int nextRoomNum : roomNums)
+	    	{
+	    		if(isRoomBooked(stays, nextRoomNum))
+	    		{
+	    			return true;
+	    		}
+	    	}
+	    	
+	    	return false;
+	    }
+	    
+	    public boolean bookRooms(String bookingRef, int[] days, int[] roomNums) throws NoSuchBookingException
+	    {
+	    	return bookRooms(bookingRef, Stay.of(days), roomNums);
+	    }
+	    
+	    /**
+	     * Books all the given rooms from the check-in day up to, not including, the check-out day under a new booking reference
+	     * @param bookingRef The new booking reference
+	     * @param checkIn First day of the stay
+	     * @param checkOut Day the stay ends, must be after checkIn
+	     * @param roomNums The room numbers to book
+	     * @return True if the booking was successful, false otherwise
+	     * @throws NoSuchBookingException if the booking reference is already in use
+	     */
+	    public boolean bookRooms(String bookingRef, int checkIn, int checkOut, int[] roomNums) throws NoSuchBookingException
+	    {
+	    	return bookRooms(bookingRef, Stay.of(checkIn, checkOut), roomNums);
+	    }
+	    
+	    /**
+	     * Books all the given rooms for the stays, for the journal replay.
+	     */
+	    boolean bookRooms(String bookingRef, Stay[] stays, int[] roomNums) throws NoSuchBookingException
+	    {
+	    	long start = System.nanoTime();
+	    	boolean booked;
+	    	try
+	    	{
+	    		booked = tryBookRooms(bookingRef, stays, roomNums);
+	    	}
+	    	catch(NoSuchBookingException e)
+	    	{
+	    		metrics.recordFailure(HotelMetrics.Operation.BOOK_ROOMS, start);
+	    		throw e;
+	    	}
+	    	metrics.record(HotelMetrics.Operation.BOOK_ROOMS, start, !booked);
+	    	return booked;
+	    }
+	    
+	    private boolean tryBookRooms(String bookingRef, Stay[] stays, int[] roomNums) throws NoSuchBookingException
+	    {
+	    	int existingId = refs.idOf(bookingRef);
+	    	if(existingId != BookingRefDictionary.NO_ID && bookingRoomNums.get(existingId) != null) 
+	    	{
+	    		// throw exception because bookingRef must be a new booking reference.
+	            // the client must update if existing booking reference is used.
+	    		throw new NoSuchBookingException(bookingRef);
+	    	}
+	    	
+	    	// our own copy, the caller may change its array afterwards.
+	    	int[] roomNumsCopy = roomNums.clone();
+	    	
+	    	// all the rooms are locked in room number order, so two group bookings can not deadlock.
+	    	long journalSeq;
+	    	List<Room> lockedRooms = lockRooms(roomNums);
+	    	try
+	    	{
+	    		if(areRoomsBooked(stays, roomNums))
+	    		{
+	    			return false;
+	    		}
+	    		
+	    		// like tryBookRoom, the id is only handed out for a booking that is made.
+	    		int bookingId = refs.intern(bookingRef);
+	    		if(bookingRoomNums.putIfAbsent(bookingId, roomNumsCopy) != null)
+	    		{
+	    			// another caller booked with the same reference in the meantime.
+	    			throw new NoSuchBookingException(bookingRef);
+	    		}
+	    		
+	    		try
+	    		{
+	    			journalSeq = log(BookingJournal.BOOK_ROOMS, bookingRef, stays, roomNums);
+	    		}
+	    		catch(RuntimeException e)
+	    		{
+	    			// the journal did not take the record, give the reference up again and leave the rooms as they are.
+	    			bookingRoomNums.remove(bookingId, roomNumsCopy);
+	    			throw e;
+	    		}
+	    		
+	    		// this means we can book given days in given room numbers.
+	    		// the stays are shared by the rooms, they are never changed.
+	    		for(Room roomToBook : lockedRooms)
+	    		{
+	    			roomToBook.book(bookingId, stays);
+	    		}
+	    	}
+	    	finally
+	    	{
+	    		unlockRooms(lockedRooms);
+	    	}
+	    	
+	    	awaitDurable(journalSeq);
+	    	return true;
+	    }
+	    
+	    /**
+	     * Updates the existing booking, afterwards it holds the given days in exactly the given rooms
+	     * and the rooms it had before and are not given are free again.
+	     * @param bookingRef The booking reference to find existing booking that needs updating
+	     * @param days The new array of days to change to
+	     * @param roomNums The room number to update the booking
+	     * @return A value indicating if the update booking was successful. True means successful, false otherwise
+	     * @throws NoSuchBookingException
+	     */
+	    public boolean updateBooking(String bookingRef, int[] days, int[] roomNums) throws NoSuchBookingException
+	    {
+	    	return updateBooking(bookingRef, Stay.of(days), roomNums);
+	    }
+	    
+	    /**
+	     * Updates the existing booking to the stay from the check-in day up to, not including, the check-out day
+	     * @param bookingRef The booking reference to find existing booking that needs updating
+	     * @param checkIn First day of the new stay
+	     * @param checkOut Day the new stay ends, must be after checkIn
+	     * @param roomNums The room number to update the booking
+	     * @return A value indicating if the update booking was successful. True means successful, false otherwise
+	     * @throws NoSuchBookingException
+	     */
+	    public boolean updateBooking(String bookingRef, int checkIn, int checkOut, int[] roomNums) throws NoSuchBookingException
+	    {
+	    	return updateBooking(bookingRef, Stay.of(checkIn, checkOut), roomNums);
+	    }
+	    
+	    /**
+	     * Updates the existing booking to the stays, for the journal replay.
+	     */
+	    boolean updateBooking(String bookingRef, Stay[] stays, int[] roomNums) throws NoSuchBookingException
+	    {
+	    	long start = System.nanoTime();
+	    	boolean updated;
+	    	try
+	    	{
+	    		updated = tryUpdateBooking(bookingRef, stays, roomNums);
+	    	}
+	    	catch(NoSuchBookingException e)
+	    	{
+	    		metrics.recordFailure(HotelMetrics.Operation.UPDATE_BOOKING, start);
+	    		throw e;
+	    	}
+	    	metrics.record(HotelMetrics.Operation.UPDATE_BOOKING, start, !updated);
+	    	return updated;
+	    }
+	    
+	    private boolean tryUpdateBooking(String bookingRef, Stay[] stays, int[] roomNums) throws NoSuchBookingException
+	    {
+	    	// our own copy, the caller may change its array afterwards.
+	    	int[] roomNumsCopy = roomNums.clone();
+	    	
+	    	long journalSeq;
+	    	List<Room> lockedRooms;
+	    	Stay[][] freed;
+	    	while(true)
+	    	{
+	    		int bookingId = refs.idOf(bookingRef);
+	    		int[] oldRoomNums = bookingId == BookingRefDictionary.NO_ID ? null : bookingRoomNums.get(bookingId);
+	    		if(oldRoomNums == null)
+	    		{
+	    			throw new NoSuchBookingException(bookingRef);
+	    		}
+	    		
+	    		// the booking moves to the new rooms, so the rooms it leaves are locked as well to release its stays there.
+	    		lockedRooms = lockRooms(union(oldRoomNums, roomNums));
+	    		freed = new Stay[lockedRooms.size()][];
+	    		try
+	    		{
+	    			// check again under the room locks, the booking may have been cancelled or moved in the meantime,
+	    			// or archived by a roll with its id handed to another booking, like in cancel.
+	    			if(refs.idOf(bookingRef) != bookingId || bookingRoomNums.get(bookingId) != oldRoomNums)
+	    			{
+	    				continue;
+	    			}
+	    			
+	    			// loop through the list of rooms and check if update is possible.
+	    			for(int nextRoomNum : roomNums)
+	    			{
+	    				if(!canUpdate(bookingId, stays, nextRoomNum))
+	    				{
+	    					return false;
+	    				}
+	    			}
+	    			
+	    			// journaled before anything changes, like the bookings.
+	    			journalSeq = log(BookingJournal.UPDATE, bookingRef, stays, roomNums);
+	    			
+	    			// Reaching to this part of the code means we can update, so will update all the bookings
+	    			// and cancel it in the rooms it no longer has.
+	    			for(int i = 0; i < lockedRooms.size(); i++)
+	    			{
+	    				Room room = lockedRooms.get(i);
+	    				freed[i] = contains(roomNums, room.number) ? room.book(bookingId, stays) : room.leave(bookingId);
+	    			}
+	    			bookingRoomNums.set(bookingId, roomNumsCopy);
+	    			break;
+	    		}
+	    		finally
+	    		{
+	    			unlockRooms(lockedRooms);
+	    		}
+	    	}
+	    	
+	    	awaitDurable(journalSeq);
+	    	offerFreedDays(lockedRooms, freed);
+	    	return true;
+	    }
+	    
+	    private static int[] union(int[] roomNums, int[] otherRoomNums)
+	    {
+	    	int[] all = Arrays.copyOf(roomNums, roomNums.length + otherRoomNums.length);
+	    	System.arraycopy(otherRoomNums, 0, all, roomNums.length, otherRoomNums.length);
+	    	return all;
+	    }
+	    
+	    private static boolean contains(int[] roomNums, int roomNum)
+	    {
+	    	for(int next : roomNums)
+	    	{
+	    		if(next == roomNum)
+	    		{
+	    			return true;
+	    		}
+	    	}
+	    	return false;
+	    }
+	    
+	    /**
+	     * Books the room as soon as all the days are free, instead of retrying bookRoom until it succeeds.
+	     * The request is tried right away, then again whenever a cancellation or an update frees one of its days.
+	     * @param bookingRef The booking reference to book with
+	     * @param days Array containing the days to book
+	     * @param roomNum The room number to book
+	     * @return A future that completes with true once the room is booked, cancel it to leave the waitlist
+	     */
+	    public CompletableFuture<Boolean> bookRoomWhenFree(String bookingRef, int[] days, int roomNum)
+	    {
+	    	// a request with a day that could never be booked, Stay.of turns it down now instead of keeping it forever.
+	    	return waitlist.add(bookingRef, Stay.of(days), roomNum);
+	    }
+	    
+	    /**
+	     * Books the room from the check-in day up to, not including, the check-out day as soon as all those days are free.
+	     * @return A future that completes with true once the room is booked, cancel it to leave the waitlist
+	     */
+	    public CompletableFuture<Boolean> bookRoomWhenFree(String bookingRef, int checkIn, int checkOut, int roomNum)
+	    {
+	    	return waitlist.add(bookingRef, Stay.of(checkIn, checkOut), roomNum);
+	    }
+	    
+	    /**
+	     * Gets the number of requests on the waitlist.
+	     */
+	    public int getWaitlistSize()
+	    {
+	    	return waitlist.size();
+	    }
+	    
+	    /**
+	     * Gets the latency histograms, outcome counters and lock wait times of this hotel.
+	     * Call register on the result to publish them through JMX.
+	     */
+	    public HotelMetrics getMetrics()
+	    {
+	    	return metrics;
+	    }
+	    
+	    /**
+	     * Finds rooms that are free on all the given days.
+	     * The result is only a hint, a room may be booked by another caller before it is booked with bookRoom.
+	     * @param days The days of the stay
+	     * @param limit The maximum number of rooms to return
+	     * @return The free room numbers in ascending order, at most limit of them
+	     */
+	    public int[] findAvailableRooms(int[] days, int limit)
+	    {
+	    	int[] roomIndexes = availability.findFree(days, limit);
+	    	
+	    	// the index works with room positions, turn them back into room numbers.
+	    	int[] roomNums = new int[roomIndexes.length];
+	    	for(int i = 0; i < roomIndexes.length; i++)
+	    	{
+	    		roomNums[i] = rooms[roomIndexes[i]].number;
+	    	}
+	    	return roomNums;
+	    }
+	    
+	    public int[] findAvailableRooms(Integer[] days, int limit)
+	    {
+	    	return findAvailableRooms(Days.unbox(days), limit);
+	    }
+	    
+	    /**
+	     * Gets the number of rooms booked on the day, without visiting the rooms.
+	     * @param day The day, days from OccupancyCounters.DEFAULT_HORIZON_DAYS on are not counted
+	     */
+	    public long occupiedRooms(int day)
+	    {
+	    	return occupancy.occupiedRooms(day);
+	    }
+	    
+	    /**
+	     * Gets the share of the rooms booked on the day, between 0 and 1.
+	     */
+	    public double occupancyRate(int day)
+	    {
+	    	return rooms.length == 0 ? 0 : (double) occupancy.occupiedRooms(day) / rooms.length;
+	    }
+	    
+	    /**
+	     * Gets the booked room nights from the first day up to, not including, the last day,
+	     * that is the sum of the booked rooms of every day in the range.
+	     */
+	    public long occupiedRoomNights(int fromDay, int toDay)
+	    {
+	    	return occupancy.occupiedRoomNights(fromDay, toDay);
+	    }
+	    
+	    /**
+	     * Writes a checkpoint of all the bookings to the file and drops the journal records it contains.
+	     * Writers are only stopped while the room maps are copied, the file is written after the locks are released.
+	     * @param file The checkpoint file, replaced atomically
+	     * @throws IOException if the checkpoint can not be written
+	     */
+	    public void checkpoint(Path file) throws IOException
+	    {
+	    	HotelSnapshot snapshot;
+	    	
+	    	// holding every room lock gives a state that matches exactly one position in the journal.
+	    	List<Room> lockedRooms = lockRooms(sortedRoomNums);
+	    	try
+	    	{
+	    		snapshot = new HotelSnapshot(rooms, bookingRoomNums, refs, journal == null ? null : journal.mark());
+	    	}
+	    	finally
+	    	{
+	    		unlockRooms(lockedRooms);
+	    	}
+	    	
+	    	snapshot.writeTo(file);
+	    	
+	    	if(journal != null)
+	    	{
+	    		// the checkpoint is on disk, the records it contains are no longer needed.
+	    		journal.compact(snapshot.journalMark);
+	    	}
+	    }
+	    
+	    /**
+	     * Books rooms for the stay under a new booking reference, letting the hotel pick the rooms.
+	     * The rooms are picked by best fit: those whose free gap around the stay is the tightest, so the stay
+	     * fills a gap rather than cutting a long free run into pieces, leaving as few short gaps as possible.
+	     * @param bookingRef The new booking reference
+	     * @param checkIn First day of the stay
+	     * @param checkOut Day the stay ends, must be after checkIn
+	     * @param roomCount Number of rooms to book
+	     * @return The booked room numbers in ascending order, an empty array if fewer rooms are free
+	     * @throws NoSuchBookingException if the booking reference is already in use
+	     */
+	    public int[] bookAnyRooms(String bookingRef, int checkIn, int checkOut, int roomCount) throws NoSuchBookingException
+	    {
+	    	Stay.check(checkIn, checkOut);
+	    	if(roomCount <= 0)
+	    	{
+	    		throw new IllegalArgumentException("Room count must be positive: " + roomCount);
+	    	}
+	    	
+	    	while(true)
+	    	{
+	    		int[] picked = pickRooms(checkIn, checkOut, roomCount);
+	    		if(picked == null)
+	    		{
+	    			return new int[0];
+	    		}
+	    		if(bookRooms(bookingRef, checkIn, checkOut, picked))
+	    		{
+	    			return picked;
+	    		}
+	    		// someone booked one of the rooms since we looked, pick again from what is free now.
+	    	}
+	    }
+	    
+	    /**
+	     * Picks the free rooms that fit the stay best.
+	     * @return The room numbers in ascending order, null if fewer than roomCount rooms are free
+	     */
+	    private int[] pickRooms(int checkIn, int checkOut, int roomCount)
+	    {
+	    	// the free room index finds the rooms free for the stay with bitmap ANDs over 64 rooms at a time,
+	    	// only those rooms are looked up in their calendars.
+	    	int[] free = availability.findFree(checkIn, checkOut, Integer.MAX_VALUE);
+	    	if(free.length < roomCount)
+	    	{
+	    		return null;
+	    	}
+	    	
+	    	// fit score in the high half and room index in the low half, sorting them ranks the rooms.
+	    	long[] ranked = new long[free.length];
+	    	int count = 0;
+	    	int exactFits = 0;
+	    	for(int i = 0; i < free.length && exactFits < roomCount; i++)
+	    	{
+	    		long gap = rooms[free[i]].calendar.freeGap(checkIn, checkOut);
+	    		if(gap >= 0)
+	    		{
+	    			int score = fitScore(checkIn, checkOut, gap);
+	    			ranked[count++] = (long) score << 32 | free[i];
+	    			// nothing beats a stay that fills its gap exactly, once there are enough of them stop looking.
+	    			if(score == 0)
+	    			{
+	    				exactFits++;
+	    			}
+	    		}
+	    	}
+	    	if(count < roomCount)
+	    	{
+	    		return null;
+	    	}
+	    	Arrays.sort(ranked, 0, count);
+	    	
+	    	int[] picked = new int[roomCount];
+	    	for(int i = 0; i < roomCount; i++)
+	    	{
+	    		picked[i] = sortedRoomNums[(int) ranked[i]];
+	    	}
+	    	Arrays.sort(picked);
+	    	return picked;
+	    }
+	    
+	    /**
+	     * Scores how well a stay fits a free gap, lower is better. The free days the stay leaves in the gap count first,
+	     * then the number of pieces they are in, so a stay that leaves one gap of two nights beats one that leaves two single nights.
+	     * A gap with no stay after it counts as leaving the most days free, as it is best kept for long stays.
+	     * @param gap The gap from RoomCalendar.freeGap
+	     */
+	    private static int fitScore(int checkIn, int checkOut, long gap)
+	    {
+	    	int gapStart = (int) (gap >>> 32);
+	    	int gapEnd = (int) gap;
+	    	long before = checkIn - gapStart;
+	    	long after = gapEnd == Integer.MAX_VALUE ? MAX_LEFTOVER_DAYS : gapEnd - checkOut;
+	    	long leftover = Math.min(before + after, MAX_LEFTOVER_DAYS);
+	    	int pieces = (before > 0 ? 1 : 0) + (after > 0 ? 1 : 0);
+	    	return (int) (leftover << 2 | pieces);
+	    }
+	    
+	    /**
+	     * Finds where a stay of the given number of nights fits anywhere within a window of days,
+	     * such as any 3 consecutive nights in March. Each room's free runs come from the gaps between its stays,
+	     * one binary search and a walk over the stays in the window, without going day by day.
+	     * The answer is weakly consistent, a run can be booked by someone else right after it is returned.
+	     * @param nights Number of consecutive nights needed
+	     * @param fromDay First day of the window
+	     * @param toDay Day the window ends, the last night of a stay is before it
+	     * @param limit The maximum number of free runs to return
+	     * @return The free runs long enough for the stay, in room number order and day order within a room
+	     */
+	    public List<FreeRun> findFreeRuns(int nights, int fromDay, int toDay, int limit)
+	    {
+	    	Stay.check(fromDay, toDay);
+	    	if(nights <= 0)
+	    	{
+	    		throw new IllegalArgumentException("Nights must be positive: " + nights);
+	    	}
+	    	
+	    	List<FreeRun> found = new ArrayList<FreeRun>();
+	    	for(int r = 0; r < rooms.length && found.size() < limit; r++)
+	    	{
+	    		int[] runs = rooms[r].calendar.freeRuns(fromDay, toDay, nights);
+	    		for(int i = 0; i < runs.length && found.size() < limit; i += 2)
+	    		{
+	    			found.add(new FreeRun(rooms[r].number, runs[i], runs[i + 1], nights));
+	    		}
+	    	}
+	    	return found;
+	    }
+	    
+	    /**
+	     * Streams every booked stay of the hotel, room by room in check-in order, read lazily off the room calendars.
+	     * Weakly consistent: each room is seen as it is when the stream gets to it, nothing is locked or copied up front.
+	     * Splits evenly for parallel streams.
+	     * @return One BookedStay per stay per room
+	     */
+	    public Stream<BookedStay> bookings()
+	    {
+	    	return StreamSupport.stream(new BookingSpliterator(rooms, refs), false);
+	    }
+	    
+	    /**
+	     * Writes every booked stay to a CSV file that importBookings can read back, using a parallel stream.
+	     * @param file The file to write, replaced if it exists
+	     * @return The number of stays written
+	     * @throws IOException if the file can not be written
+	     */
+	    public long exportBookings(Path file) throws IOException
+	    {
+	    	return BookingExport.write(bookings().parallel(), file);
+	    }
+	    
+	    /**
+	     * Imports existing bookings from a CSV file with one bookingRef,roomNum,checkIn,checkOut line per stay,
+	     * see BookingImport for which bookings are rejected. The file is parsed in parallel before any lock is taken,
+	     * writers then wait while the bookings are checked and put in, readers go on. Imports and rollHorizon take turns.
+	     * With a journal every imported booking is appended to it as a bookRooms record.
+	     * @param file The CSV file
+	     * @return The number of imported bookings and the references that were rejected
+	     * @throws IOException if the file can not be read or a line is malformed, nothing is imported then
+	     */
+	    public BookingImport importBookings(Path file) throws IOException
+	    {
+	    	synchronized(idLock)
+	    	{
+	    		return importBookingsHoldingIdLock(file);
+	    	}
+	    }
+	    
+	    private BookingImport importBookingsHoldingIdLock(Path file) throws IOException
+	    {
+	    	BookingImport bookingImport = new BookingImport(this, file, Runtime.getRuntime().availableProcessors());
+	    	try
+	    	{
+	    		bookingImport.read();
+	    	}
+	    	catch(IOException | RuntimeException e)
+	    	{
+	    		List<Room> lockedRooms = lockRooms(sortedRoomNums);
+	    		try
+	    		{
+	    			bookingImport.forgetUnbooked();
+	    		}
+	    		finally
+	    		{
+	    			unlockRooms(lockedRooms);
+	    		}
+	    		throw e;
+	    	}
+	    	
+	    	long journalSeq = 0;
+	    	List<Room> lockedRooms = lockRooms(sortedRoomNums);
+	    	try
+	    	{
+	    		bookingImport.check();
+	    		// journaled before the rooms change. If the journal fails the ids of the file are left to the next roll.
+	    		for(int id = 0; journal != null && id < bookingImport.bookings.length; id++)
+	    		{
+	    			BookingImport.Booking booking = bookingImport.bookings[id];
+	    			if(booking != null)
+	    			{
+	    				journalSeq = log(BookingJournal.BOOK_ROOMS, refs.refOf(id), booking.stays, booking.roomNums);
+	    			}
+	    		}
+	    		bookingImport.install();
+	    		bookingImport.forgetUnbooked();
+	    	}
+	    	finally
+	    	{
+	    		unlockRooms(lockedRooms);
+	    	}
+	    	
+	    	awaitDurable(journalSeq);
+	    	return bookingImport;
+	    }
+	    
+	    /**
+	     * Moves the calendar on to today: bookings whose every stay has ended by today are appended to the archive file
+	     * and removed, and the occupancy counters and the free room index drop the days before today.
+	     * The occupancy horizon then runs from today, the days that come into it are counted from the bookings.
+	     * Writers wait while the hotel rolls, readers go on, an import waits for the roll. With a journal every archived
+	     * booking is logged as a cancel. The booking ids of the archived and the cancelled bookings are handed out again,
+	     * so the memory the ids take follows the bookings that are alive, not all the bookings ever made.
+	     * @param today The first day that is not in the past
+	     * @param archive CSV file the archived stays are appended to, in the format importBookings reads
+	     * @return The number of archived bookings
+	     * @throws IOException if the archive can not be written, nothing is removed then
+	     */
+	    public int rollHorizon(int today, Path archive) throws IOException
+	    {
+	    	synchronized(idLock)
+	    	{
+	    		return rollHorizonHoldingIdLock(today, archive);
+	    	}
+	    }
+	    
+	    private int rollHorizonHoldingIdLock(int today, Path archive) throws IOException
+	    {
+	    	int archived = 0;
+	    	long journalSeq = 0;
+	    	List<Room> lockedRooms = lockRooms(sortedRoomNums);
+	    	try
+	    	{
+	    		// a booking is only archived once it has ended in all its rooms.
+	    		byte[] seen = new byte[refs.size()];
+	    		for(Room room : rooms)
+	    		{
+	    			RoomCalendar calendar = room.calendar;
+	    			for(int i = 0; i < calendar.size(); i++)
+	    			{
+	    				int id = calendar.bookingId(i);
+	    				if(calendar.checkOut(i) > today)
+	    				{
+	    					seen[id] = LIVE;
+	    				}
+	    				else if(seen[id] == 0)
+	    				{
+	    					seen[id] = ENDED;
+	    				}
+	    			}
+	    		}
+	    		
+	    		List<BookedStay> endedStayList = new ArrayList<BookedStay>();
+	    		for(Room room : rooms)
+	    		{
+	    			RoomCalendar calendar = room.calendar;
+	    			// the stays of a room do not overlap, the ones that ended are the first ones.
+	    			for(int i = 0; i < calendar.size() && calendar.checkOut(i) <= today; i++)
+	    			{
+	    				int id = calendar.bookingId(i);
+	    				if(seen[id] == ENDED)
+	    				{
+	    					endedStayList.add(new BookedStay(refs.refOf(id), room.number, calendar.checkIn(i), calendar.checkOut(i)));
+	    				}
+	    			}
+	    		}
+	    		
+	    		// on disk before anything is removed, a crash in between archives the bookings again on the next roll.
+	    		if(!endedStayList.isEmpty())
+	    		{
+	    			BookingExport.append(endedStayList.stream(), archive);
+	    		}
+	    		
+	    		// journaled before anything is removed as well, like above.
+	    		for(int id = 0; id < seen.length; id++)
+	    		{
+	    			if(seen[id] == ENDED)
+	    			{
+	    				journalSeq = log(BookingJournal.CANCEL, refs.refOf(id), Stay.NONE, Days.NONE);
+	    			}
+	    		}
+	    		
+	    		for(Room room : rooms)
+	    		{
+	    			room.removeEnded(today, id -> seen[id] == ENDED);
+	    		}
+	    		for(int id = 0; id < seen.length; id++)
+	    		{
+	    			if(seen[id] == ENDED)
+	    			{
+	    				bookingRoomNums.set(id, null);
+	    				refs.forget(id);
+	    				archived++;
+	    			}
+	    			else if(seen[id] == 0 && bookingRoomNums.get(id) == null)
+	    			{
+	    				// cancelled since the last roll, its id can be handed out again now that nobody books with it.
+	    				refs.forget(id);
+	    			}
+	    		}
+	    		
+	    		int oldEnd = (int) Math.min(Integer.MAX_VALUE, (long) occupancy.firstDay() + occupancy.horizonDays());
+	    		occupancy.advance(today);
+	    		int enterFrom = Math.max(oldEnd, occupancy.firstDay());
+	    		for(Room room : rooms)
+	    		{
+	    			RoomCalendar calendar = room.calendar;
+	    			for(int i = 0; i < calendar.size(); i++)
+	    			{
+	    				if(calendar.checkOut(i) > enterFrom)
+	    				{
+	    					occupancy.add(Math.max(calendar.checkIn(i), enterFrom), calendar.checkOut(i), 1);
+	    				}
+	    			}
+	    		}
+	    		availability.dropBefore(today);
+	    	}
+	    	finally
+	    	{
+	    		unlockRooms(lockedRooms);
+	    	}
+	    	
+	    	awaitDurable(journalSeq);
+	    	return archived;
+	    }
+	    
+	    /**
+	     * Locks the given rooms in ascending room number order.
+	     * Every multi room operation takes the locks in the same order, so they can not deadlock.
+	     * @param roomNums The room numbers to lock, duplicates are locked once
+	     * @return The locked rooms in locking order, pass them to unlockRooms
+	     */
+	    private List<Room> lockRooms(int[] roomNums)
+	    {
+	    	int[] sorted = roomNums.clone();
+	    	Arrays.sort(sorted);
+	    	
+	    	List<Room> lockedRooms = new ArrayList<Room>(sorted.length);
+	    	for(int i = 0; i < sorted.length; i++)
+	    	{
+	    		if(i > 0 && sorted[i] == sorted[i - 1])
+	    		{
+	    			continue;
+	    		}
+	    		Room room = room(sorted[i]);
+	    		lock(room);
+	    		lockedRooms.add(room);
+	    	}
+	    	return lockedRooms;
+	    }
+	    
+	    /**
+	     * Locks the room, timing the wait for the metrics when someone else holds the lock.
+	     */
+	    private void lock(Room room)
+	    {
+	    	if(room.lock.tryLock())
+	    	{
+	    		return;
+	    	}
+	    	long start = System.nanoTime();
+	    	room.lock.lock();
+	    	metrics.recordLockWait(System.nanoTime() - start);
+	    }
+	    
+	    /**
+	     * Unlocks the rooms locked by lockRooms, in reverse order.
+	     */
+	    private void unlockRooms(List<Room> lockedRooms)
+	    {
+	    	for(int i = lockedRooms.size() - 1; i >= 0; i--)
+	    	{
+	    		lockedRooms.get(i).lock.unlock();
+	    	}
+	    }
+	    
+	    /**
+	     * Gets the room object for the room number with a binary search over the sorted room numbers.
+	     * @param roomNum The room number
+	     * @return The room, or null if the hotel has no such room
+	     */
+	    Room room(int roomNum)
+	    {
+	    	int index = Arrays.binarySearch(sortedRoomNums, roomNum);
+	    	return index >= 0 ? rooms[index] : null;
+	    }
+	    
+	    private static AvailabilityCache newAvailabilityCache()
+	    {
+	    	int size = Integer.getInteger(AvailabilityCache.SIZE_PROPERTY, AvailabilityCache.DEFAULT_SIZE);
+	    	return size > 0 ? new AvailabilityCache(size) : null;
+	    }
+	    
+	    /**
+	     * Appends a change to the journal, if there is one. Called while holding the room locks, after the change
+	     * is known to succeed and before it is made, so a journal that has failed or is closed turns it down
+	     * before anything has changed.
+	     * @return The journal sequence number to wait for, 0 without a journal
+	     */
+	    private long log(byte type, String bookingRef, Stay[] stays, int[] roomNums)
+	    {
+	    	return journal == null ? 0 : journal.append(type, bookingRef, stays, roomNums);
+	    }
+	    
+	    /**
+	     * Lets the waitlist book the days that were freed, called once the room locks are released
+	     * so the waiting bookings can take them. The waitlist books them on its own thread, this returns right away.
+	     */
+	    private void offerFreedDays(List<Room> changedRooms, Stay[][] freed)
+	    {
+	    	if(waitlist.size() == 0)
+	    	{
+	    		return;
+	    	}
+	    	for(int i = 0; i < changedRooms.size(); i++)
+	    	{
+	    		if(freed[i] != null && freed[i].length > 0)
+	    		{
+	    			waitlist.freed(changedRooms.get(i).number, freed[i]);
+	    		}
+	    	}
+	    }
+	    
+	    /**
+	     * Waits for the journal record to be on disk, called after the room locks are released
+	     * so other bookings can go on while we wait for the group commit.
+	     */
+	    private void awaitDurable(long journalSeq)
+	    {
+	    	if(journal != null && journalSeq > 0)
+	    	{
+	    		journal.awaitDurable(journalSeq);
+	    	}
+	    }
+	    
+	   
+	    /**
+	     * Determines if existing booking can be update with given days
+	     * @param bookingId Id of the existing booking reference
+	     * @param stays New stays to update
+	     * @param roomNum A value indicating if its okay to update. True means it can be update, false otherwise
+	     * @return
+	     */
+	    private boolean canUpdate(int bookingId, Stay[] stays, int roomNum)
+	    {
+	    	Room roomToUpdate = room(roomNum);
+	    	
+	        // Only the days the booking does not hold yet in roomNum room are checked,
+	        // the days it keeps are its own and can not conflict.
+	    	// return true when none of the added days is booked for the room (roomNum).
+	    	return roomToUpdate.canChangeTo(bookingId, stays);
+	    }	    
 }
\ No newline at end of file
@@ -0,0 +1,260 @@
+package hotelSystem;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Many hotels spread over a fixed number of shards.
+ * Every shard has one thread that applies the operations on its hotels one after the other from a queue,
+ * so a hotel is only ever touched by its shard thread and the shards never wait for each other.
+ * Callers submit operations and get a CompletableFuture back, which completes on the shard thread.
+ * An Error on a shard thread stops the shard and fails the futures still queued on it,
+ * submitting to a stopped shard throws RejectedExecutionException.
+ *
+ * The hotels are LockFreeHotel by default: with one writer its compare-and-sets never fail, and nothing on the
+ * path of an operation locks, records metrics or starts a thread. The locking Hotel brings its room locks,
+ * metrics and waitlist thread along for nothing here, but can still be picked with the hotelSystem.chain.engine
+ * property, for example for stays beyond the LockFreeHotel calendar.
+ */
+public class HotelChain implements Closeable {
+
+	// System property naming the engine of the hotels, see BookingEngine.create.
+	public static final String ENGINE_PROPERTY = "hotelSystem.chain.engine";
+
+	// Maximum number of queued operations a shard runs before it checks the queue again.
+	private static final int BATCH_SIZE = 256;
+
+	private final Shard[] shards;
+
+	// Maps the hotel id with the hotel and the shard that owns it.
+	private final Map<String, ShardedHotel> hotels = new ConcurrentHashMap<String, ShardedHotel>();
+
+	// Hotels are handed to the shards in turn so every shard gets the same number of hotels.
+	private final AtomicInteger nextShard = new AtomicInteger();
+
+	/**
+	 * Starts the shard threads.
+	 * @param shardCount Number of shards, usually the number of cores
+	 */
+	public HotelChain(int shardCount) {
+		shards = new Shard[shardCount];
+		for(int i = 0; i < shardCount; i++) {
+			shards[i] = new Shard("hotel-shard-" + i);
+			shards[i].start();
+		}
+	}
+
+	/**
+	 * Adds a hotel to the chain, the engine is chosen by the hotelSystem.chain.engine system property, lock free by default.
+	 * @param hotelId The id the operations refer to the hotel by
+	 * @param roomNums Array of rooms which the hotel contains
+	 * @throws IllegalArgumentException if the id is already in use
+	 */
+	public void addHotel(String hotelId, int[] roomNums) {
+		Shard shard = shards[Math.floorMod(nextShard.getAndIncrement(), shards.length)];
+		if(hotels.putIfAbsent(hotelId, new ShardedHotel(newEngine(roomNums), shard)) != null) {
+			throw new IllegalArgumentException("Hotel " + hotelId + " already exists");
+		}
+	}
+
+	private static BookingEngine newEngine(int[] roomNums) {
+		return BookingEngine.create(System.getProperty(ENGINE_PROPERTY, BookingEngine.LOCK_FREE), roomNums);
+	}
+
+	public CompletableFuture<Boolean> roomBooked(String hotelId, int[] days, int roomNumber) {
+		return submit(hotelId, hotel -> hotel.roomBooked(days, roomNumber));
+	}
+
+	public CompletableFuture<Boolean> roomsBooked(String hotelId, int[] days, int[] roomNums) {
+		return submit(hotelId, hotel -> hotel.roomsBooked(days, roomNums));
+	}
+
+	public CompletableFuture<Boolean> bookRoom(String hotelId, String bookingRef, int[] days, int roomNum) {
+		return submit(hotelId, hotel -> hotel.bookRoom(bookingRef, days, roomNum));
+	}
+
+	/**
+	 * Books all the given rooms of the hotel, the future fails with NoSuchBookingException if the reference is in use.
+	 */
+	public CompletableFuture<Boolean> bookRooms(String hotelId, String bookingRef, int[] days, int[] roomNums) {
+		return submit(hotelId, hotel -> hotel.bookRooms(bookingRef, days, roomNums));
+	}
+
+	/**
+	 * Updates a booking of the hotel, the future fails with NoSuchBookingException if the reference is not found.
+	 */
+	public CompletableFuture<Boolean> updateBooking(String hotelId, String bookingRef, int[] days, int[] roomNums) {
+		return submit(hotelId, hotel -> hotel.updateBooking(bookingRef, days, roomNums));
+	}
+
+	/**
+	 * Cancels a booking of the hotel, the future fails with NoSuchBookingException if the reference is not found.
+	 */
+	public CompletableFuture<Void> cancelBooking(String hotelId, String bookingRef) {
+		return submit(hotelId, hotel -> {
+			hotel.cancelBooking(bookingRef);
+			return null;
+		});
+	}
+
+	private <T> CompletableFuture<T> submit(String hotelId, Operation<T> operation) {
+		ShardedHotel target = hotels.get(hotelId);
+		if(target == null) {
+			throw new IllegalArgumentException("Unknown hotel " + hotelId);
+		}
+
+		Task<T> task = new Task<T>(target.hotel, operation);
+		target.shard.enqueue(task);
+		return task.result;
+	}
+
+	/**
+	 * Stops the shard threads after they have run the operations already submitted.
+	 */
+	@Override
+	public void close() {
+		for(Shard shard : shards) {
+			shard.shutdown();
+		}
+		for(Shard shard : shards) {
+			try {
+				shard.join();
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * An operation on one hotel, run on the hotel's shard thread.
+	 */
+	private interface Operation<T> {
+		T apply(BookingEngine hotel) throws NoSuchBookingException;
+	}
+
+	/**
+	 * A submitted operation and the future its caller waits on.
+	 */
+	private static final class Task<T> {
+		final BookingEngine hotel;
+		final Operation<T> operation;
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+
+		Task(BookingEngine hotel, Operation<T> operation) {
+			this.hotel = hotel;
+			this.operation = operation;
+		}
+
+		void run() {
+			try {
+				result.complete(operation.apply(hotel));
+			}
+			catch(Exception e) {
+				result.completeExceptionally(e);
+			}
+			catch(Error e) {
+				// the caller hears about it, the shard stops as after any other error.
+				result.completeExceptionally(e);
+				throw e;
+			}
+		}
+	}
+
+	private static final class ShardedHotel {
+		final BookingEngine hotel;
+		final Shard shard;
+
+		ShardedHotel(BookingEngine hotel, Shard shard) {
+			this.hotel = hotel;
+			this.shard = shard;
+		}
+	}
+
+	/**
+	 * The single writer of its hotels, runs the queued operations in the order they were submitted.
+	 */
+	private static final class Shard extends Thread {
+
+		// Queued after the last operation by shutdown.
+		private static final Task<Void> STOP = new Task<Void>(null, null);
+
+		private final BlockingQueue<Task<?>> queue = new LinkedBlockingQueue<Task<?>>();
+
+		// Set once no operation is taken any more. Guarded by this, so nothing is queued after STOP
+		// or after the pending operations were failed.
+		private boolean stopping;
+
+		Shard(String name) {
+			super(name);
+			setDaemon(true);
+		}
+
+		synchronized void enqueue(Task<?> task) {
+			if(stopping) {
+				throw new RejectedExecutionException("Hotel chain is closed");
+			}
+			queue.add(task);
+		}
+
+		synchronized void shutdown() {
+			if(!stopping) {
+				stopping = true;
+				queue.add(STOP);
+			}
+		}
+
+		@Override
+		public void run() {
+			List<Task<?>> batch = new ArrayList<Task<?>>(BATCH_SIZE);
+			try {
+				while(true) {
+					// block for the first operation, then take whatever else is already waiting.
+					batch.add(queue.take());
+					queue.drainTo(batch, BATCH_SIZE - 1);
+					for(int i = 0; i < batch.size(); i++) {
+						if(batch.get(i) == STOP) {
+							return;
+						}
+						// taken off the batch first, so a failing operation is not failed twice below.
+						Task<?> task = batch.set(i, null);
+						task.run();
+					}
+					batch.clear();
+				}
+			}
+			catch(InterruptedException e) {
+				failPending(batch, new RejectedExecutionException("Hotel chain shard was interrupted"));
+			}
+			catch(Throwable e) {
+				// without this the futures still queued would never complete.
+				failPending(batch, e);
+				throw e;
+			}
+		}
+
+		/**
+		 * Stops taking operations and fails every operation that was queued but not run.
+		 */
+		private void failPending(List<Task<?>> batch, Throwable cause) {
+			synchronized(this) {
+				stopping = true;
+			}
+			queue.drainTo(batch);
+			for(Task<?> task : batch) {
+				if(task != null && task != STOP) {
+					task.result.completeExceptionally(cause);
+				}
+			}
+		}
+	}
+}
@@ -1,15 +1,15 @@
-package hotelSystem;
-
-public class HotelDemo {
-
-	public static void main(String[] args) {
-//		int[] hotelRooms = new int[] { 1, 2 };
-//		Hotel hotel = new Hotel(hotelRooms);
-//		
-//		Integer[] days = new Integer[] { 1, 2};
-//		hotel.bookRoom("B-1", days, 1);
-//		
-//		
-	}
-
-}
+package hotelSystem;
+
+public class HotelDemo {
+
+	public static void main(String[] args) {
+//		int[] hotelRooms = new int[] { 1, 2 };
+//		Hotel hotel = new Hotel(hotelRooms);
+//		
+//		Integer[] days = new Integer[] { 1, 2};
+//		hotel.bookRoom("B-1", days, 1);
+//		
+//		
+	}
+
+}
@@ -0,0 +1,216 @@
+package hotelSystem;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Built-in metrics of a Hotel: a latency histogram and outcome counters for every public operation
+ * the time spent waiting for room locks and the hit rate of the availability cache.
+ *
+ * Recording costs two System.nanoTime calls and one or two increments per call. The histograms are striped
+ * by thread and the counters are LongAdders, so threads recording at the same time rarely touch the same
+ * counter. Lock waits are only timed when the lock was not free, so the metrics can stay on in production.
+ */
+public class HotelMetrics implements HotelMetricsMXBean {
+
+	/**
+	 * The instrumented operations.
+	 */
+	public enum Operation {
+		ROOM_BOOKED("roomBooked"),
+		ROOMS_BOOKED("roomsBooked"),
+		BOOK_ROOM("bookRoom"),
+		BOOK_ROOMS("bookRooms"),
+		UPDATE_BOOKING("updateBooking"),
+		CANCEL_BOOKING("cancelBooking");
+
+		private final String methodName;
+
+		Operation(String methodName) {
+			this.methodName = methodName;
+		}
+	}
+
+	private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+	private final LongAdder[] rejected = new LongAdder[Operation.values().length];
+	private final LongAdder[] failed = new LongAdder[Operation.values().length];
+
+	private final LatencyHistogram lockWaits = new LatencyHistogram();
+	private final LongAdder lockWaitTotalNanos = new LongAdder();
+
+	// The hotel's roomsBooked cache, null when it has none.
+	private final AvailabilityCache availabilityCache;
+
+	public HotelMetrics() {
+		this(null);
+	}
+
+	HotelMetrics(AvailabilityCache availabilityCache) {
+		this.availabilityCache = availabilityCache;
+		for(int i = 0; i < latencies.length; i++) {
+			latencies[i] = new LatencyHistogram();
+			rejected[i] = new LongAdder();
+			failed[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Records a finished call.
+	 * @param operation The operation that was called
+	 * @param startNanos System.nanoTime when the call started
+	 * @param rejectedByConflict True if a booking or update returned false because the days were taken
+	 */
+	void record(Operation operation, long startNanos, boolean rejectedByConflict) {
+		latencies[operation.ordinal()].record(System.nanoTime() - startNanos);
+		if(rejectedByConflict) {
+			rejected[operation.ordinal()].increment();
+		}
+	}
+
+	/**
+	 * Records a call that threw.
+	 */
+	void recordFailure(Operation operation, long startNanos) {
+		latencies[operation.ordinal()].record(System.nanoTime() - startNanos);
+		failed[operation.ordinal()].increment();
+	}
+
+	/**
+	 * Records the time spent waiting for a room lock that was held by someone else.
+	 */
+	void recordLockWait(long waitNanos) {
+		lockWaits.record(waitNanos);
+		lockWaitTotalNanos.add(waitNanos);
+	}
+
+	/**
+	 * Gets a snapshot of the metrics of one operation.
+	 */
+	public OperationStats snapshot(Operation operation) {
+		LatencyHistogram histogram = latencies[operation.ordinal()];
+		return new OperationStats(operation.methodName, histogram.count(), rejected[operation.ordinal()].sum(),
+				failed[operation.ordinal()].sum(), histogram.percentile(50), histogram.percentile(99),
+				histogram.percentile(99.9), histogram.max());
+	}
+
+	@Override
+	public List<OperationStats> getOperations() {
+		List<OperationStats> operations = new ArrayList<OperationStats>();
+		for(Operation operation : Operation.values()) {
+			operations.add(snapshot(operation));
+		}
+		return operations;
+	}
+
+	@Override
+	public long getLockWaitCount() {
+		return lockWaits.count();
+	}
+
+	@Override
+	public long getLockWaitP99Nanos() {
+		return lockWaits.percentile(99);
+	}
+
+	@Override
+	public long getLockWaitMaxNanos() {
+		return lockWaits.max();
+	}
+
+	@Override
+	public long getLockWaitTotalNanos() {
+		return lockWaitTotalNanos.sum();
+	}
+
+	@Override
+	public long getBookings() {
+		return successes(Operation.BOOK_ROOM) + successes(Operation.BOOK_ROOMS);
+	}
+
+	@Override
+	public long getCancellations() {
+		return successes(Operation.CANCEL_BOOKING);
+	}
+
+	@Override
+	public double getRejectRate() {
+		long attempts = 0;
+		long rejections = 0;
+		for(Operation operation : new Operation[] { Operation.BOOK_ROOM, Operation.BOOK_ROOMS, Operation.UPDATE_BOOKING }) {
+			attempts += latencies[operation.ordinal()].count();
+			rejections += rejected[operation.ordinal()].sum();
+		}
+		return attempts == 0 ? 0 : (double) rejections / attempts;
+	}
+
+	@Override
+	public long getAvailabilityCacheHits() {
+		return availabilityCache == null ? 0 : availabilityCache.hits();
+	}
+
+	@Override
+	public long getAvailabilityCacheMisses() {
+		return availabilityCache == null ? 0 : availabilityCache.misses();
+	}
+
+	@Override
+	public double getAvailabilityCacheHitRate() {
+		long hits = getAvailabilityCacheHits();
+		long lookups = hits + getAvailabilityCacheMisses();
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	@Override
+	public long getAvailabilityCacheEvictions() {
+		return availabilityCache == null ? 0 : availabilityCache.evictions();
+	}
+
+	@Override
+	public int getAvailabilityCacheSize() {
+		return availabilityCache == null ? 0 : availabilityCache.size();
+	}
+
+	@Override
+	public long getAvailabilityCacheMemoryBytes() {
+		return availabilityCache == null ? 0 : availabilityCache.memoryBytes();
+	}
+
+	private long successes(Operation operation) {
+		int i = operation.ordinal();
+		return latencies[i].count() - rejected[i].sum() - failed[i].sum();
+	}
+
+	@Override
+	public void reset() {
+		for(int i = 0; i < latencies.length; i++) {
+			latencies[i].reset();
+			rejected[i].reset();
+			failed[i].reset();
+		}
+		lockWaits.reset();
+		lockWaitTotalNanos.reset();
+		if(availabilityCache != null) {
+			availabilityCache.resetCounts();
+		}
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server as hotelSystem:type=HotelMetrics,name=the given name.
+	 * @param name Name of the hotel, must be unique within the JVM
+	 * @throws IllegalStateException if the name is already registered
+	 */
+	public void register(String name) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+					new ObjectName("hotelSystem:type=HotelMetrics,name=" + ObjectName.quote(name)));
+		}
+		catch(JMException e) {
+			throw new IllegalStateException("Can not register the metrics of hotel " + name, e);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package hotelSystem;
+
+import java.util.List;
+
+/**
+ * Management interface of the hotel metrics, registered with JMX by HotelMetrics.register.
+ */
+public interface HotelMetricsMXBean {
+
+	/**
+	 * Gets the latency and outcome counts of every public Hotel operation.
+	 */
+	List<OperationStats> getOperations();
+
+	/**
+	 * Gets the number of times an operation had to wait for a room lock held by someone else.
+	 */
+	long getLockWaitCount();
+
+	long getLockWaitP99Nanos();
+
+	long getLockWaitMaxNanos();
+
+	/**
+	 * Gets the total time spent waiting for room locks.
+	 */
+	long getLockWaitTotalNanos();
+
+	/**
+	 * Gets the number of successful bookRoom and bookRooms calls.
+	 */
+	long getBookings();
+
+	long getCancellations();
+
+	/**
+	 * Gets the fraction of booking and update attempts rejected because of a conflict.
+	 */
+	double getRejectRate();
+
+	/**
+	 * Gets the number of roomsBooked calls answered from the availability cache.
+	 */
+	long getAvailabilityCacheHits();
+
+	/**
+	 * Gets the number of roomsBooked calls that had no cached answer, or one from before a change to its rooms.
+	 */
+	long getAvailabilityCacheMisses();
+
+	double getAvailabilityCacheHitRate();
+
+	long getAvailabilityCacheEvictions();
+
+	/**
+	 * Gets the number of cached answers.
+	 */
+	int getAvailabilityCacheSize();
+
+	/**
+	 * Gets an estimate of the heap used by the cached answers.
+	 */
+	long getAvailabilityCacheMemoryBytes();
+
+	/**
+	 * Clears all the counts and histograms.
+	 */
+	void reset();
+}
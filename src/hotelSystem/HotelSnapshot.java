@@ -0,0 +1,264 @@
+package hotelSystem;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Checkpoint of the bookings of a hotel: the calendar of every room and the booking reference index,
+ * together with the journal position they correspond to.
+ *
+ * A snapshot only copies the map entries of the rooms and the references of their bookings, the stays of a
+ * booking are never changed once they are in a room, so they can be written out after the room locks are released.
+ * The references are looked up while the locks are held, a booking id can mean another booking once they are not.
+ *
+ * File layout, all big endian:
+ * [int magic][long journal sequence]
+ * [int ref count] then per ref [int length][UTF-8 bytes]
+ * [int room count] then per room [int room number][int booking count] and per booking [int ref index][int stay count] and per stay [int check-in][int check-out]
+ * [int index size] then per ref [int ref index][int room count][int room numbers]
+ * [int CRC32 of everything before it]
+ */
+final class HotelSnapshot {
+
+	private static final int MAGIC = 0x48435033; // "HCP3"
+
+	// Journal position the snapshot matches, null for a hotel without journal.
+	final BookingJournal.Mark journalMark;
+
+	private final int[] roomNums;
+	private final List<IntMap<Stay[]>> roomBookings;
+
+	// The booking index as parallel arrays of booking id and room numbers.
+	private final List<Integer> indexIds = new ArrayList<Integer>();
+	private final List<int[]> indexRoomNums = new ArrayList<int[]>();
+
+	// Every live reference once, fileRefs.get(fileIndex[id]) is the reference of the booking id.
+	private final int[] fileIndex;
+	private final List<String> fileRefs = new ArrayList<String>();
+
+	/**
+	 * Copies the state of the rooms. The caller holds the locks of all the rooms.
+	 */
+	HotelSnapshot(Room[] rooms, IdTable<int[]> bookingRoomNums, BookingRefDictionary refs, BookingJournal.Mark journalMark) {
+		this.journalMark = journalMark;
+		this.roomNums = new int[rooms.length];
+		this.roomBookings = new ArrayList<IntMap<Stay[]>>(rooms.length);
+		for(int i = 0; i < rooms.length; i++) {
+			roomNums[i] = rooms[i].number;
+			roomBookings.add(rooms[i].copyBookings());
+		}
+		// the room number arrays are never changed once they are in the index.
+		bookingRoomNums.forEach((id, roomNums) -> {
+			indexIds.add(id);
+			indexRoomNums.add(roomNums);
+		});
+
+		// every live reference is written once and then referred to by its index in the file,
+		// the ids are dense so the id to file index map is a plain array.
+		fileIndex = new int[refs.size()];
+		Arrays.fill(fileIndex, -1);
+		for(IntMap<Stay[]> bookings : roomBookings) {
+			bookings.forEach((id, stays) -> addRef(refs, id));
+		}
+		for(int id : indexIds) {
+			addRef(refs, id);
+		}
+	}
+
+	/**
+	 * Writes the snapshot to a temporary file and moves it over the checkpoint file once it is on disk,
+	 * so a crash never leaves a half written checkpoint behind.
+	 */
+	void writeTo(Path file) throws IOException {
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+		try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			CRC32 crc = new CRC32();
+			DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+					new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), crc));
+
+			out.writeInt(MAGIC);
+			out.writeLong(journalMark == null ? 0 : journalMark.seq);
+
+			out.writeInt(fileRefs.size());
+			for(String ref : fileRefs) {
+				byte[] bytes = ref.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+
+			out.writeInt(roomNums.length);
+			for(int i = 0; i < roomNums.length; i++) {
+				IntMap<Stay[]> bookings = roomBookings.get(i);
+				out.writeInt(roomNums[i]);
+				out.writeInt(bookings.size());
+				for(int id : idsOf(bookings)) {
+					Stay[] stays = bookings.get(id);
+					out.writeInt(fileIndex[id]);
+					out.writeInt(stays.length);
+					for(Stay stay : stays) {
+						out.writeInt(stay.checkIn);
+						out.writeInt(stay.checkOut);
+					}
+				}
+			}
+
+			out.writeInt(indexIds.size());
+			for(int i = 0; i < indexIds.size(); i++) {
+				out.writeInt(fileIndex[indexIds.get(i)]);
+				out.writeInt(indexRoomNums.get(i).length);
+				for(int roomNum : indexRoomNums.get(i)) {
+					out.writeInt(roomNum);
+				}
+			}
+
+			out.flush();
+			// the checksum itself is not part of the checksum.
+			new DataOutputStream(Channels.newOutputStream(channel)).writeInt((int) crc.getValue());
+			channel.force(true);
+		}
+		Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private void addRef(BookingRefDictionary refs, int id) {
+		if(fileIndex[id] < 0) {
+			fileIndex[id] = fileRefs.size();
+			fileRefs.add(refs.refOf(id));
+		}
+	}
+
+	private static int[] idsOf(IntMap<Stay[]> bookings) {
+		int[] ids = new int[bookings.size()];
+		int[] count = new int[1];
+		bookings.forEach((id, days) -> ids[count[0]++] = id);
+		return ids;
+	}
+
+	/**
+	 * Loads the checkpoint file into an empty hotel, reading it through a memory mapping.
+	 * @return The journal sequence number the checkpoint contains the records up to
+	 * @throws IOException if the file can not be read or is damaged
+	 */
+	static long restore(Path file, Hotel hotel) throws IOException {
+		MappedByteBuffer buffer;
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if(buffer.limit() < 16 || buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a hotel checkpoint: " + file);
+		}
+		CRC32 crc = new CRC32();
+		ByteBuffer content = buffer.duplicate();
+		content.limit(buffer.limit() - 4);
+		crc.update(content);
+		if((int) crc.getValue() != buffer.getInt(buffer.limit() - 4)) {
+			throw new IOException("Hotel checkpoint is damaged: " + file);
+		}
+
+		buffer.position(4);
+		long journalSeq = buffer.getLong();
+
+		// maps the index of a reference in the file with its id in the hotel.
+		int[] ids = new int[buffer.getInt()];
+		for(int i = 0; i < ids.length; i++) {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			ids[i] = hotel.refs.intern(new String(bytes, StandardCharsets.UTF_8));
+		}
+
+		int roomCount = buffer.getInt();
+		for(int i = 0; i < roomCount; i++) {
+			int roomNum = buffer.getInt();
+			Room room = hotel.room(roomNum);
+			if(room == null) {
+				throw new IOException("Hotel checkpoint has room " + roomNum + " which the hotel does not have");
+			}
+			restoreRoom(buffer, ids, room);
+		}
+
+		int indexSize = buffer.getInt();
+		for(int i = 0; i < indexSize; i++) {
+			int id = ids[buffer.getInt()];
+			int[] roomNums = new int[buffer.getInt()];
+			for(int n = 0; n < roomNums.length; n++) {
+				roomNums[n] = buffer.getInt();
+			}
+			hotel.bookingRoomNums.set(id, roomNums);
+		}
+		return journalSeq;
+	}
+
+	/**
+	 * Reads the bookings of one room and puts them in with one new calendar for the room,
+	 * so the restore takes time in line with the number of stays, not one calendar copy per booking.
+	 */
+	private static void restoreRoom(ByteBuffer buffer, int[] ids, Room room) {
+		int bookingCount = buffer.getInt();
+		int count = 0;
+		int[] stayIds = new int[bookingCount];
+		Stay[] roomStays = new Stay[bookingCount];
+		Stay[][] bookingStays = new Stay[bookingCount][];
+		for(int b = 0; b < bookingCount; b++) {
+			int id = ids[buffer.getInt()];
+			Stay[] stays = new Stay[buffer.getInt()];
+			for(int s = 0; s < stays.length; s++) {
+				stays[s] = new Stay(buffer.getInt(), buffer.getInt());
+			}
+			if(count + stays.length > roomStays.length) {
+				int size = Math.max(roomStays.length * 2, count + stays.length);
+				stayIds = Arrays.copyOf(stayIds, size);
+				roomStays = Arrays.copyOf(roomStays, size);
+				bookingStays = Arrays.copyOf(bookingStays, size);
+			}
+			for(Stay stay : stays) {
+				stayIds[count] = id;
+				roomStays[count] = stay;
+				bookingStays[count] = stays;
+				count++;
+			}
+		}
+
+		// the bookings are in no particular order, the calendar wants the stays in check-in order.
+		// check-in day in the high half and the position in the low half, like the import sorts them.
+		long[] order = new long[count];
+		for(int i = 0; i < count; i++) {
+			order[i] = (long) roomStays[i].checkIn << 32 | i;
+		}
+		Arrays.sort(order);
+		int[] checkIns = new int[count];
+		int[] checkOuts = new int[count];
+		int[] sortedIds = new int[count];
+		Stay[][] sortedBookingStays = new Stay[count][];
+		for(int i = 0; i < count; i++) {
+			int from = (int) order[i];
+			checkIns[i] = roomStays[from].checkIn;
+			checkOuts[i] = roomStays[from].checkOut;
+			sortedIds[i] = stayIds[from];
+			sortedBookingStays[i] = bookingStays[from];
+		}
+
+		room.lock.lock();
+		try {
+			room.importStays(count, checkIns, checkOuts, sortedIds, sortedBookingStays);
+		}
+		finally {
+			room.lock.unlock();
+		}
+	}
+}
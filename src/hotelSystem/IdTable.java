@@ -0,0 +1,110 @@
+package hotelSystem;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Concurrent table indexed by a dense int id, used in place of a map keyed by the booking reference.
+ * The slots live in fixed size chunks that are added as the ids grow, so a lookup is two array reads
+ * and growing never copies the slots themselves. An empty slot holds null.
+ */
+final class IdTable<V> {
+
+	// 2^CHUNK_BITS slots per chunk.
+	private static final int CHUNK_BITS = 12;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+	// Only replaced as a whole, a chunk is written into a fresh copy of the array before it is published.
+	private volatile AtomicReferenceArray<V>[] chunks = newChunks(0);
+
+	/**
+	 * Gets the value of the id, null if it has none.
+	 */
+	V get(int id) {
+		AtomicReferenceArray<V> chunk = chunk(id, false);
+		return chunk == null ? null : chunk.get(id & (CHUNK_SIZE - 1));
+	}
+
+	void set(int id, V value) {
+		chunk(id, true).set(id & (CHUNK_SIZE - 1), value);
+	}
+
+	/**
+	 * Sets the value of the id unless it already has one.
+	 * @return The value the id already had, null if the given value was set
+	 */
+	V putIfAbsent(int id, V value) {
+		AtomicReferenceArray<V> chunk = chunk(id, true);
+		int slot = id & (CHUNK_SIZE - 1);
+		while(true) {
+			if(chunk.compareAndSet(slot, null, value)) {
+				return null;
+			}
+			V current = chunk.get(slot);
+			if(current != null) {
+				return current;
+			}
+		}
+	}
+
+	/**
+	 * Clears the id if it still has the given value.
+	 * @return True if the value was removed
+	 */
+	boolean remove(int id, V expected) {
+		AtomicReferenceArray<V> chunk = chunk(id, false);
+		return chunk != null && chunk.compareAndSet(id & (CHUNK_SIZE - 1), expected, null);
+	}
+
+	/**
+	 * Calls the visitor for every id that has a value, in ascending id order.
+	 * Values set or cleared while this runs may or may not be seen.
+	 */
+	void forEach(Visitor<V> visitor) {
+		AtomicReferenceArray<V>[] current = chunks;
+		for(int c = 0; c < current.length; c++) {
+			if(current[c] == null) {
+				continue;
+			}
+			for(int slot = 0; slot < CHUNK_SIZE; slot++) {
+				V value = current[c].get(slot);
+				if(value != null) {
+					visitor.visit((c << CHUNK_BITS) | slot, value);
+				}
+			}
+		}
+	}
+
+	private AtomicReferenceArray<V> chunk(int id, boolean create) {
+		int index = id >>> CHUNK_BITS;
+		AtomicReferenceArray<V>[] current = chunks;
+		if(index < current.length && current[index] != null) {
+			return current[index];
+		}
+		return create ? addChunk(index) : null;
+	}
+
+	private synchronized AtomicReferenceArray<V> addChunk(int index) {
+		AtomicReferenceArray<V>[] current = chunks;
+		if(index < current.length && current[index] != null) {
+			// another thread added it while we waited.
+			return current[index];
+		}
+		AtomicReferenceArray<V>[] grown = Arrays.copyOf(current, Math.max(index + 1, current.length));
+		grown[index] = new AtomicReferenceArray<V>(CHUNK_SIZE);
+		chunks = grown;
+		return grown[index];
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static <V> AtomicReferenceArray<V>[] newChunks(int length) {
+		return new AtomicReferenceArray[length];
+	}
+
+	/**
+	 * Receives the entries of an IdTable or an IntMap.
+	 */
+	interface Visitor<V> {
+		void visit(int id, V value);
+	}
+}
@@ -0,0 +1,152 @@
+package hotelSystem;
+
+import java.util.Arrays;
+
+/**
+ * Small map from non-negative int keys to objects, for the per room booking maps.
+ * Open addressing with linear probing over plain arrays, so there are no boxed keys and no entry objects.
+ * Not thread safe, the room lock guards it.
+ */
+final class IntMap<V> {
+
+	// Marks a slot that has no key, the keys are never negative.
+	private static final int FREE = -1;
+
+	private int[] keys;
+	private Object[] values;
+	private int size;
+
+	IntMap() {
+		this(4);
+	}
+
+	private IntMap(int capacity) {
+		keys = new int[capacity];
+		values = new Object[capacity];
+		Arrays.fill(keys, FREE);
+	}
+
+	int size() {
+		return size;
+	}
+
+	@SuppressWarnings("unchecked")
+	V get(int key) {
+		int slot = find(key);
+		return slot < 0 ? null : (V) values[slot];
+	}
+
+	/**
+	 * Puts the value for the key.
+	 * @return The value the key had before, null if it had none
+	 */
+	@SuppressWarnings("unchecked")
+	V put(int key, V value) {
+		if((size + 1) * 2 > keys.length) {
+			// keep the table at most half full so the probe sequences stay short.
+			resize(keys.length * 2);
+		}
+		int mask = keys.length - 1;
+		for(int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+			if(keys[slot] == key) {
+				V previous = (V) values[slot];
+				values[slot] = value;
+				return previous;
+			}
+			if(keys[slot] == FREE) {
+				keys[slot] = key;
+				values[slot] = value;
+				size++;
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Removes the key.
+	 * @return The value the key had, null if it had none
+	 */
+	@SuppressWarnings("unchecked")
+	V remove(int key) {
+		int slot = find(key);
+		if(slot < 0) {
+			return null;
+		}
+		V previous = (V) values[slot];
+		size--;
+
+		// move the following entries of the probe sequence back, so no lookup stops at the hole.
+		int mask = keys.length - 1;
+		int hole = slot;
+		for(int next = (hole + 1) & mask; keys[next] != FREE; next = (next + 1) & mask) {
+			int home = hash(keys[next]) & mask;
+			boolean reachable = hole <= next ? (home <= hole || home > next) : (home <= hole && home > next);
+			if(reachable) {
+				keys[hole] = keys[next];
+				values[hole] = values[next];
+				hole = next;
+			}
+		}
+		keys[hole] = FREE;
+		values[hole] = null;
+		return previous;
+	}
+
+	/**
+	 * Copies the map, the values themselves are shared.
+	 */
+	IntMap<V> copy() {
+		IntMap<V> copy = new IntMap<V>(keys.length);
+		System.arraycopy(keys, 0, copy.keys, 0, keys.length);
+		System.arraycopy(values, 0, copy.values, 0, values.length);
+		copy.size = size;
+		return copy;
+	}
+
+	@SuppressWarnings("unchecked")
+	void forEach(IdTable.Visitor<V> visitor) {
+		for(int slot = 0; slot < keys.length; slot++) {
+			if(keys[slot] != FREE) {
+				visitor.visit(keys[slot], (V) values[slot]);
+			}
+		}
+	}
+
+	private int find(int key) {
+		if(key == FREE) {
+			// would match an empty slot.
+			return -1;
+		}
+		int mask = keys.length - 1;
+		for(int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+			if(keys[slot] == key) {
+				return slot;
+			}
+			if(keys[slot] == FREE) {
+				return -1;
+			}
+		}
+	}
+
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new int[capacity];
+		values = new Object[capacity];
+		Arrays.fill(keys, FREE);
+		size = 0;
+		for(int i = 0; i < oldKeys.length; i++) {
+			if(oldKeys[i] != FREE) {
+				@SuppressWarnings("unchecked")
+				V value = (V) oldValues[i];
+				put(oldKeys[i], value);
+			}
+		}
+	}
+
+	private static int hash(int key) {
+		// ids are handed out in sequence, spread them so neighbours do not cluster.
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
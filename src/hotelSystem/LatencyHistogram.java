@@ -0,0 +1,147 @@
+package hotelSystem;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Concurrent latency histogram in the style of HdrHistogram.
+ * Values are counted in buckets that double in size, each split into 32 sub-buckets, so any value is
+ * recorded with about 3% precision using 15 KB of counters per stripe.
+ *
+ * The counters are striped like a LongAdder: every thread records into the stripe its id hashes to,
+ * so threads recording at the same time mostly increment different arrays instead of fighting over
+ * one cache line. Stripes are made on first use, reads add the stripes up.
+ */
+public class LatencyHistogram {
+
+	// 2^SUB_BUCKET_BITS sub-buckets per power of two.
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	// Twice the processors, rounded up to a power of two and capped, so a busy hotel has
+	// at most 64 stripes per histogram.
+	private static final int STRIPES = Math.min(64, Integer.highestOneBit(Math.max(1, 2 * Runtime.getRuntime().availableProcessors() - 1)) << 1);
+
+	private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<AtomicLongArray>(STRIPES);
+
+	/**
+	 * Records a value, negative values are counted as 0.
+	 * @param value The value, usually a duration in nanoseconds
+	 */
+	public void record(long value) {
+		stripe().incrementAndGet(indexOf(Math.max(0, value)));
+	}
+
+	/**
+	 * Gets the number of recorded values.
+	 */
+	public long count() {
+		long total = 0;
+		for(long count : counts()) {
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * Gets the value below which the given percentage of the recorded values are.
+	 * @param percentile Between 0 and 100
+	 * @return The upper end of the bucket containing the percentile, 0 when nothing was recorded
+	 */
+	public long percentile(double percentile) {
+		long[] snapshot = counts();
+		long total = 0;
+		for(long count : snapshot) {
+			total += count;
+		}
+		if(total == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+		long seen = 0;
+		for(int i = 0; i < snapshot.length; i++) {
+			seen += snapshot[i];
+			if(seen >= rank) {
+				return highestValueOf(i);
+			}
+		}
+		return highestValueOf(snapshot.length - 1);
+	}
+
+	/**
+	 * Gets the largest recorded value, rounded up to its bucket.
+	 */
+	public long max() {
+		long[] snapshot = counts();
+		for(int i = snapshot.length - 1; i >= 0; i--) {
+			if(snapshot[i] != 0) {
+				return highestValueOf(i);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Clears all the counts.
+	 */
+	public void reset() {
+		for(int s = 0; s < STRIPES; s++) {
+			AtomicLongArray stripe = stripes.get(s);
+			for(int i = 0; stripe != null && i < BUCKETS; i++) {
+				stripe.set(i, 0);
+			}
+		}
+	}
+
+	/**
+	 * Gets the stripe of the current thread, making it if no thread used it yet.
+	 */
+	private AtomicLongArray stripe() {
+		// the thread ids are handed out in order, the multiply spreads neighbours over the stripes.
+		int s = (int) (Thread.currentThread().getId() * 0x9E3779B97F4A7C15L >>> 32) & (STRIPES - 1);
+		AtomicLongArray stripe = stripes.get(s);
+		if(stripe == null) {
+			stripes.compareAndSet(s, null, new AtomicLongArray(BUCKETS));
+			stripe = stripes.get(s);
+		}
+		return stripe;
+	}
+
+	/**
+	 * Adds up the counts of every bucket over the stripes.
+	 */
+	private long[] counts() {
+		long[] counts = new long[BUCKETS];
+		for(int s = 0; s < STRIPES; s++) {
+			AtomicLongArray stripe = stripes.get(s);
+			for(int i = 0; stripe != null && i < BUCKETS; i++) {
+				counts[i] += stripe.get(i);
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Values below SUB_BUCKETS get one bucket each, above that the position of the highest bit
+	 * picks the power of two and the next SUB_BUCKET_BITS bits pick the sub-bucket.
+	 */
+	private static int indexOf(long value) {
+		if(value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> magnitude) - SUB_BUCKETS;
+		return (magnitude + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long highestValueOf(int index) {
+		if(index < SUB_BUCKETS) {
+			return index;
+		}
+		int magnitude = index / SUB_BUCKETS - 1;
+		long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << magnitude) - 1;
+	}
+}
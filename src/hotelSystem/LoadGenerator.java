@@ -0,0 +1,203 @@
+package hotelSystem;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives a BookingServer with many concurrent client sessions and reports the end to end latency.
+ * Each session is one connection on its own (virtual) thread that sends a mix of queries, bookings,
+ * updates and cancellations and waits for every answer before sending the next request.
+ *
+ * Usage: LoadGenerator [sessions] [requests per session] [rooms] [port]
+ * Without a port an in-process server with a new Hotel is started. Tens of thousands of sessions
+ * need a higher open file limit (ulimit -n) than most systems have by default.
+ */
+public class LoadGenerator {
+
+	private static final int HORIZON_DAYS = 365;
+	private static final int MAX_STAY = 7;
+
+	private static final String[] OPERATIONS = { "BOOKED", "BOOK", "UPDATE", "CANCEL" };
+
+	private final int port;
+	private final int sessions;
+	private final int requestsPerSession;
+	private final int rooms;
+
+	// One histogram per operation, in the order of OPERATIONS.
+	private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+	private final AtomicLong errors = new AtomicLong();
+
+	public LoadGenerator(int port, int sessions, int requestsPerSession, int rooms) {
+		this.port = port;
+		this.sessions = sessions;
+		this.requestsPerSession = requestsPerSession;
+		this.rooms = rooms;
+		for(int i = 0; i < latencies.length; i++) {
+			latencies[i] = new LatencyHistogram();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+		int requests = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		int rooms = args.length > 2 ? Integer.parseInt(args[2]) : 1_000;
+
+		BookingServer server = null;
+		int port;
+		if(args.length > 3) {
+			port = Integer.parseInt(args[3]);
+		}
+		else {
+			int[] roomNums = new int[rooms];
+			for(int i = 0; i < rooms; i++) {
+				roomNums[i] = i + 1;
+			}
+			server = new BookingServer(BookingEngine.create(roomNums), 0);
+			port = server.getPort();
+		}
+
+		System.out.println("Sessions: " + sessions + ", requests per session: " + requests + ", rooms: " + rooms
+				+ ", virtual threads: " + VirtualThreads.available());
+		new LoadGenerator(port, sessions, requests, rooms).run();
+
+		if(server != null) {
+			server.close();
+		}
+	}
+
+	/**
+	 * Connects all the sessions, starts them at the same time and prints the results once they are done.
+	 */
+	public void run() throws InterruptedException {
+		CountDownLatch connected = new CountDownLatch(sessions);
+		CountDownLatch start = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(sessions);
+
+		ExecutorService clients = VirtualThreads.newThreadPerTaskExecutor();
+		for(int i = 0; i < sessions; i++) {
+			int sessionId = i;
+			clients.execute(() -> {
+				try {
+					session(sessionId, connected, start);
+				}
+				catch(IOException | InterruptedException e) {
+					errors.incrementAndGet();
+				}
+				finally {
+					done.countDown();
+				}
+			});
+		}
+
+		connected.await();
+		long startNanos = System.nanoTime();
+		start.countDown();
+		done.await();
+		long elapsedNanos = System.nanoTime() - startNanos;
+		clients.shutdown();
+		clients.awaitTermination(1, TimeUnit.MINUTES);
+
+		report(elapsedNanos);
+	}
+
+	private void session(int sessionId, CountDownLatch connected, CountDownLatch start) throws IOException, InterruptedException {
+		SplittableRandom random = new SplittableRandom(sessionId);
+		List<String> booked = new ArrayList<String>();
+		int nextRef = 0;
+		boolean counted = false;
+
+		try(Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+				BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+				Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+			socket.setTcpNoDelay(true);
+			connected.countDown();
+			counted = true;
+			start.await();
+
+			for(int i = 0; i < requestsPerSession; i++) {
+				// mostly queries, like the real traffic.
+				int roll = random.nextInt(100);
+				int operation = roll < 60 ? 0 : roll < 85 ? 1 : roll < 92 ? 2 : 3;
+				if(operation >= 2 && booked.isEmpty()) {
+					operation = 1;
+				}
+
+				String request;
+				String ref = null;
+				if(operation == 0) {
+					request = "BOOKED " + room(random) + " " + stay(random);
+				}
+				else if(operation == 1) {
+					ref = "s" + sessionId + "-" + nextRef++;
+					request = "BOOK " + ref + " " + room(random) + " " + stay(random);
+				}
+				else if(operation == 2) {
+					request = "UPDATE " + booked.get(random.nextInt(booked.size())) + " " + room(random) + " " + stay(random);
+				}
+				else {
+					ref = booked.remove(booked.size() - 1);
+					request = "CANCEL " + ref;
+				}
+
+				long sent = System.nanoTime();
+				out.write(request);
+				out.write('\n');
+				out.flush();
+				String response = in.readLine();
+				latencies[operation].record(System.nanoTime() - sent);
+
+				if(response == null || response.startsWith("ERR")) {
+					errors.incrementAndGet();
+				}
+				else if(operation == 1 && response.equals("OK true")) {
+					booked.add(ref);
+				}
+			}
+		}
+		finally {
+			// a session that failed to connect must not hold up the start.
+			if(!counted) {
+				connected.countDown();
+			}
+		}
+	}
+
+	private int room(SplittableRandom random) {
+		return random.nextInt(rooms) + 1;
+	}
+
+	private static String stay(SplittableRandom random) {
+		int first = random.nextInt(HORIZON_DAYS - MAX_STAY);
+		return first + "-" + (first + random.nextInt(MAX_STAY));
+	}
+
+	private void report(long elapsedNanos) {
+		long total = 0;
+		System.out.println(String.format("%-8s %10s %10s %10s %10s %10s %10s", "op", "count", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us"));
+		for(int i = 0; i < OPERATIONS.length; i++) {
+			LatencyHistogram histogram = latencies[i];
+			long count = histogram.count();
+			total += count;
+			System.out.println(String.format("%-8s %10d %10.1f %10.1f %10.1f %10.1f %10.1f", OPERATIONS[i], count,
+					histogram.percentile(50) / 1000.0, histogram.percentile(90) / 1000.0, histogram.percentile(99) / 1000.0,
+					histogram.percentile(99.9) / 1000.0, histogram.max() / 1000.0));
+		}
+		System.out.println(String.format("%d requests in %.2f s, %.0f requests/s, %d errors",
+				total, elapsedNanos / 1e9, total / (elapsedNanos / 1e9), errors.get()));
+	}
+}
@@ -0,0 +1,307 @@
+package hotelSystem;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Booking engine without locks.
+ * Each room's calendar is an AtomicLongArray, bit N of the calendar is set when day N is booked.
+ * A stay is booked by setting its bits word by word with compare-and-set, if one of the words
+ * already has a booked day the words set so far are rolled back and the booking fails.
+ *
+ * Unlike Hotel the calendar has a fixed number of days, given to the constructor.
+ * While a conflicting booking is being rolled back other callers may briefly see its days as booked.
+ */
+public class LockFreeHotel implements BookingEngine {
+
+	// Number of days in each room calendar when none is given.
+	public static final int DEFAULT_HORIZON_DAYS = 1024;
+
+	// Maps the room number with its dense index into calendars.
+	private final Map<Integer, Integer> roomIndex = new HashMap<Integer, Integer>();
+
+	// One calendar per room, 64 days per word.
+	private final AtomicLongArray[] calendars;
+
+	// Maps the booking reference with what it holds, replaced as a whole on update.
+	private final Map<String, Booking> bookings = new ConcurrentHashMap<String, Booking>();
+
+	private final int horizonDays;
+
+	/**
+	 * Class Constructor Method
+	 * @param roomNums Array of rooms which Hotel contains
+	 */
+	public LockFreeHotel(int[] roomNums) {
+		this(roomNums, DEFAULT_HORIZON_DAYS);
+	}
+
+	/**
+	 * Class Constructor Method
+	 * @param roomNums Array of rooms which Hotel contains
+	 * @param horizonDays Number of days that can be booked, days run from 0 to horizonDays - 1
+	 */
+	public LockFreeHotel(int[] roomNums, int horizonDays) {
+		this.horizonDays = horizonDays;
+		this.calendars = new AtomicLongArray[roomNums.length];
+		for(int i = 0; i < roomNums.length; i++) {
+			roomIndex.put(roomNums[i], i);
+			calendars[i] = new AtomicLongArray((horizonDays + 63) / 64);
+		}
+	}
+
+	@Override
+	public boolean roomBooked(int[] days, int roomNumber) {
+		if(days == null || days.length == 0) {
+			return false;
+		}
+		return intersects(calendars[indexOf(roomNumber)], days);
+	}
+
+	@Override
+	public boolean roomsBooked(int[] days, int[] roomNums) {
+		for(int nextRoomNum : roomNums) {
+			if(intersects(calendars[indexOf(nextRoomNum)], days)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean bookRoom(String bookingRef, int[] days, int roomNum) {
+		Booking booking = new Booking(new int[] { indexOf(roomNum) }, toMask(days));
+		if(!claimAll(booking.rooms, booking.mask)) {
+			return false;
+		}
+
+		// like Hotel, booking with an existing reference replaces what the reference points to.
+		Booking previous = bookings.put(bookingRef, booking);
+		if(previous != null) {
+			releaseAll(previous.rooms, previous.mask);
+		}
+		return true;
+	}
+
+	@Override
+	public boolean bookRooms(String bookingRef, int[] days, int[] roomNums) throws NoSuchBookingException {
+		if(bookings.containsKey(bookingRef)) {
+			// bookingRef must be a new booking reference.
+			throw new NoSuchBookingException(bookingRef);
+		}
+
+		Booking booking = new Booking(indexesOf(roomNums), toMask(days));
+		if(!claimAll(booking.rooms, booking.mask)) {
+			return false;
+		}
+		if(bookings.putIfAbsent(bookingRef, booking) != null) {
+			// another caller booked with the same reference in the meantime.
+			releaseAll(booking.rooms, booking.mask);
+			throw new NoSuchBookingException(bookingRef);
+		}
+		return true;
+	}
+
+	@Override
+	public boolean updateBooking(String bookingRef, int[] days, int roomNum) throws NoSuchBookingException {
+		return updateBooking(bookingRef, days, new int[] { roomNum });
+	}
+
+	/**
+	 * Updates the existing booking, afterwards the reference holds the given days in exactly the given rooms.
+	 * Only the days that are new for a room are claimed, the days the booking no longer needs are released
+	 * after the new booking has replaced the old one.
+	 */
+	@Override
+	public boolean updateBooking(String bookingRef, int[] days, int[] roomNums) throws NoSuchBookingException {
+		Booking updated = new Booking(indexesOf(roomNums), toMask(days));
+
+		while(true) {
+			Booking current = bookings.get(bookingRef);
+			if(current == null) {
+				throw new NoSuchBookingException(bookingRef);
+			}
+
+			// claim the added days of each room, rolling back the rooms already claimed on conflict.
+			int claimed = 0;
+			while(claimed < updated.rooms.length
+					&& claim(calendars[updated.rooms[claimed]], added(current, updated, updated.rooms[claimed]))) {
+				claimed++;
+			}
+			if(claimed < updated.rooms.length) {
+				for(int i = 0; i < claimed; i++) {
+					release(calendars[updated.rooms[i]], added(current, updated, updated.rooms[i]));
+				}
+				return false;
+			}
+
+			// the replace is the point where the update takes effect.
+			if(bookings.replace(bookingRef, current, updated)) {
+				for(int room : current.rooms) {
+					release(calendars[room], added(updated, current, room));
+				}
+				return true;
+			}
+
+			// the booking was updated or cancelled concurrently, undo and try again.
+			for(int room : updated.rooms) {
+				release(calendars[room], added(current, updated, room));
+			}
+		}
+	}
+
+	@Override
+	public void cancelBooking(String bookingRef) throws NoSuchBookingException {
+		Booking booking = bookings.remove(bookingRef);
+		if(booking == null) {
+			throw new NoSuchBookingException(bookingRef);
+		}
+		releaseAll(booking.rooms, booking.mask);
+	}
+
+	/**
+	 * Sets the bits of the mask in all the given rooms, or none of them.
+	 */
+	private boolean claimAll(int[] rooms, long[] mask) {
+		for(int i = 0; i < rooms.length; i++) {
+			if(!claim(calendars[rooms[i]], mask)) {
+				// roll back the rooms we already claimed.
+				releaseAll(Arrays.copyOf(rooms, i), mask);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void releaseAll(int[] rooms, long[] mask) {
+		for(int room : rooms) {
+			release(calendars[room], mask);
+		}
+	}
+
+	/**
+	 * Sets the bits of the mask in the calendar with compare-and-set, one word at a time.
+	 * @return True if all the bits were free and are now set, false if one was taken, then nothing is set
+	 */
+	private static boolean claim(AtomicLongArray calendar, long[] mask) {
+		for(int word = 0; word < mask.length; word++) {
+			if(mask[word] == 0) {
+				continue;
+			}
+			while(true) {
+				long current = calendar.get(word);
+				if((current & mask[word]) != 0) {
+					// conflict, undo the words before this one.
+					for(int done = 0; done < word; done++) {
+						clearBits(calendar, done, mask[done]);
+					}
+					return false;
+				}
+				if(calendar.compareAndSet(word, current, current | mask[word])) {
+					break;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static void release(AtomicLongArray calendar, long[] mask) {
+		for(int word = 0; word < mask.length; word++) {
+			clearBits(calendar, word, mask[word]);
+		}
+	}
+
+	private static void clearBits(AtomicLongArray calendar, int word, long bits) {
+		if(bits == 0) {
+			return;
+		}
+		long current;
+		do {
+			current = calendar.get(word);
+		} while(!calendar.compareAndSet(word, current, current & ~bits));
+	}
+
+	/**
+	 * Checks the days against the calendar one bit at a time, so queries allocate nothing.
+	 */
+	private boolean intersects(AtomicLongArray calendar, int[] days) {
+		for(int day : days) {
+			if(day >= 0 && day < horizonDays && (calendar.get(day >>> 6) & (1L << day)) != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the days the "to" booking holds in the room that the "from" booking does not.
+	 */
+	private static long[] added(Booking from, Booking to, int room) {
+		if(!to.holds(room)) {
+			return new long[0];
+		}
+		if(!from.holds(room)) {
+			return to.mask;
+		}
+		long[] added = new long[to.mask.length];
+		for(int word = 0; word < added.length; word++) {
+			long before = word < from.mask.length ? from.mask[word] : 0;
+			added[word] = to.mask[word] & ~before;
+		}
+		return added;
+	}
+
+	/**
+	 * Converts the array of days to calendar words.
+	 * @throws IllegalArgumentException if a day is outside of the calendar
+	 */
+	private long[] toMask(int[] days) {
+		int maxDay = -1;
+		for(int day : days) {
+			if(day < 0 || day >= horizonDays) {
+				throw new IllegalArgumentException("Day " + day + " is outside of the calendar of " + horizonDays + " days");
+			}
+			maxDay = Math.max(maxDay, day);
+		}
+		long[] mask = new long[maxDay / 64 + 1];
+		for(int day : days) {
+			mask[day >>> 6] |= 1L << day;
+		}
+		return mask;
+	}
+
+	private int indexOf(int roomNum) {
+		// It is assumed that the passed roomNumber is valid
+		return roomIndex.get(roomNum);
+	}
+
+	private int[] indexesOf(int[] roomNums) {
+		// duplicates would claim the same days twice and always conflict, so they are dropped.
+		return Arrays.stream(roomNums).distinct().map(this::indexOf).toArray();
+	}
+
+	/**
+	 * The rooms and days a booking reference holds. Never changed once created.
+	 */
+	private static final class Booking {
+		final int[] rooms;
+		final long[] mask;
+
+		Booking(int[] rooms, long[] mask) {
+			this.rooms = rooms;
+			this.mask = mask;
+		}
+
+		boolean holds(int room) {
+			for(int next : rooms) {
+				if(next == room) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
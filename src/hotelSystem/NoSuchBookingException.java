@@ -1,9 +1,9 @@
-package hotelSystem;
-
-public class NoSuchBookingException extends Exception {
-
-	public NoSuchBookingException(String bookingRef) {
-		// TODO Auto-generated constructor stub
-	}
-
-}
+package hotelSystem;
+
+public class NoSuchBookingException extends Exception {
+
+	public NoSuchBookingException(String bookingRef) {
+		// TODO Auto-generated constructor stub
+	}
+
+}
@@ -0,0 +1,170 @@
+package hotelSystem;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Number of booked rooms per day, kept up to date by the rooms as stays are booked and released,
+ * so occupancy reports never have to visit the rooms.
+ *
+ * The counts come from a Fenwick tree with range updates: adding a stay touches O(log n) nodes whatever
+ * its length, and the sum of any range of days, a single day included, is two prefix sums of O(log n) nodes each. The nodes are LongAdders as well, the nodes near
+ * the root are hit by every booking so they must not become a single contended word.
+ *
+ * Only a rolling horizon of days is counted, from the first day on. The counters are a ring: day d is
+ * kept in slot d % horizonDays, so moving the first day forward only clears the slots of the days that
+ * drop out and the memory stays the same however long the hotel runs.
+ *
+ * Reads are not atomic with the updates, a report taken while bookings change may be off by
+ * the bookings in flight, like any other counter read while it is being incremented.
+ * Days before the first day and from the end of the horizon on are not counted.
+ */
+final class OccupancyCounters {
+
+	// Number of days counted when none is given, a bit over eleven years.
+	static final int DEFAULT_HORIZON_DAYS = 4096;
+
+	// System property with the number of days a hotel counts, DEFAULT_HORIZON_DAYS if it is not set.
+	static final String HORIZON_PROPERTY = "hotelSystem.horizonDays";
+
+	private final int horizonDays;
+
+	// First counted day, moved forward by advance.
+	private volatile int firstDay;
+
+	// The two trees of the range update, range query Fenwick tree over the slots, 1-based.
+	// The sum of slots 1..i is prefix(slopes, i) * i - prefix(offsets, i).
+	private final LongAdder[] slopes;
+	private final LongAdder[] offsets;
+
+	OccupancyCounters(int horizonDays) {
+		this.horizonDays = horizonDays;
+		this.slopes = newAdders(horizonDays + 1);
+		this.offsets = newAdders(horizonDays + 1);
+	}
+
+	int horizonDays() {
+		return horizonDays;
+	}
+
+	int firstDay() {
+		return firstDay;
+	}
+
+	/**
+	 * Adds a room to, or with a negative count removes it from, every day of the stay. Called by the room.
+	 */
+	void add(Stay stay, int count) {
+		add(stay.checkIn, stay.checkOut, count);
+	}
+
+	/**
+	 * Adds a room to, or with a negative count removes it from, every day of [checkIn, checkOut) that is counted.
+	 */
+	void add(int checkIn, int checkOut, int count) {
+		int first = firstDay;
+		int from = Math.max(checkIn, first);
+		int to = (int) Math.min(checkOut, (long) first + horizonDays);
+		if(from >= to) {
+			return;
+		}
+		// a range that runs over the end of the ring is two slot ranges.
+		int start = from % horizonDays;
+		int end = start + (to - from);
+		if(end <= horizonDays) {
+			addToSlots(start, end, count);
+		}
+		else {
+			addToSlots(start, horizonDays, count);
+			addToSlots(0, end - horizonDays, count);
+		}
+	}
+
+	/**
+	 * Gets the number of booked rooms on the day.
+	 */
+	long occupiedRooms(int day) {
+		return occupiedRoomNights(day, (int) Math.min(Integer.MAX_VALUE, day + 1L));
+	}
+
+	/**
+	 * Gets the sum of the booked rooms over the days of [fromDay, toDay), that is the booked room nights.
+	 */
+	long occupiedRoomNights(int fromDay, int toDay) {
+		int first = firstDay;
+		int from = Math.max(fromDay, first);
+		int to = (int) Math.min(toDay, (long) first + horizonDays);
+		if(from >= to) {
+			return 0;
+		}
+		int start = from % horizonDays;
+		int end = start + (to - from);
+		if(end <= horizonDays) {
+			return prefixSum(end) - prefixSum(start);
+		}
+		return prefixSum(horizonDays) - prefixSum(start) + prefixSum(end - horizonDays);
+	}
+
+	/**
+	 * Moves the first counted day forward. The days before it are cleared and their slots are reused for the days
+	 * that come in at the end of the horizon, which start at zero: the caller counts the stays already booked on them.
+	 * Nothing may be added meanwhile, the hotel holds every room lock.
+	 */
+	void advance(int newFirstDay) {
+		int first = firstDay;
+		if(newFirstDay <= first) {
+			return;
+		}
+		// moving on by more than the horizon clears every slot once.
+		int end = (int) Math.min(newFirstDay, (long) first + horizonDays);
+		for(int day = first; day < end; day++) {
+			int slot = day % horizonDays;
+			long count = prefixSum(slot + 1) - prefixSum(slot);
+			if(count != 0) {
+				addToSlots(slot, slot + 1, -count);
+			}
+		}
+		firstDay = newFirstDay;
+	}
+
+	/**
+	 * Adds the count to the slots of [fromSlot, toSlot) in the tree.
+	 */
+	private void addToSlots(int fromSlot, int toSlot, long count) {
+		// the slots fromSlot..toSlot - 1 are the tree positions fromSlot + 1..toSlot.
+		int first = fromSlot + 1;
+		int last = toSlot;
+		update(slopes, first, count);
+		update(slopes, last + 1, -count);
+		update(offsets, first, count * (first - 1));
+		update(offsets, last + 1, -count * last);
+	}
+
+	/**
+	 * Sum of the booked rooms over the first slots.
+	 */
+	private long prefixSum(int slots) {
+		return prefix(slopes, slots) * slots - prefix(offsets, slots);
+	}
+
+	private void update(LongAdder[] tree, int position, long value) {
+		for(int i = position; i < tree.length; i += i & -i) {
+			tree[i].add(value);
+		}
+	}
+
+	private static long prefix(LongAdder[] tree, int position) {
+		long sum = 0;
+		for(int i = position; i > 0; i -= i & -i) {
+			sum += tree[i].sum();
+		}
+		return sum;
+	}
+
+	private static LongAdder[] newAdders(int length) {
+		LongAdder[] adders = new LongAdder[length];
+		for(int i = 0; i < length; i++) {
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+}
@@ -0,0 +1,374 @@
+package hotelSystem;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Booking engine for very large inventories that keeps the calendars outside of the Java heap.
+ * The rooms x days occupancy matrix lives in direct ByteBuffers, each cell holds the id of the booking
+ * that has the room that day, 0 when the room is free. Rooms are addressed by a dense index.
+ *
+ * The heap holds one small record per booking reference, its rooms and its runs of consecutive days as stays,
+ * so the heap grows with the number of bookings, not with the rooms, the length of the calendar or the nights
+ * of a stay, and the garbage collector never has to walk the calendars.
+ * Writers lock a fixed set of lock stripes in ascending order, readers read the cells without locking.
+ */
+public class OffHeapHotel implements BookingEngine {
+
+	// Number of days in each room calendar when none is given.
+	public static final int DEFAULT_HORIZON_DAYS = 1024;
+
+	// Number of locks the rooms are spread over.
+	private static final int LOCK_STRIPES = 1024;
+
+	// Reads and writes the int cells of the matrix with memory ordering, so readers see complete bookings.
+	private static final VarHandle CELL = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+	// Maps the room number with its dense index into the matrix.
+	private final Map<Integer, Integer> roomIndex = new HashMap<Integer, Integer>();
+
+	// The matrix, split into segments of whole rooms because one ByteBuffer can not be larger than 2 GB.
+	private final ByteBuffer[] segments;
+	private final int roomsPerSegment;
+	private final int horizonDays;
+
+	private final ReentrantLock[] locks;
+
+	// Maps the booking reference with its id, rooms and stays.
+	private final Map<String, Booking> bookings = new ConcurrentHashMap<String, Booking>();
+	private final AtomicInteger nextId = new AtomicInteger();
+
+	// Ids of the cancelled bookings, handed out again so nextId does not run into 0, which means free.
+	// An id is only put here once its cells are cleared, under the locks of its rooms.
+	private final Queue<Integer> freeIds = new ConcurrentLinkedQueue<Integer>();
+
+	/**
+	 * Class Constructor Method
+	 * @param roomNums Array of rooms which Hotel contains
+	 */
+	public OffHeapHotel(int[] roomNums) {
+		this(roomNums, DEFAULT_HORIZON_DAYS);
+	}
+
+	/**
+	 * Class Constructor Method
+	 * @param roomNums Array of rooms which Hotel contains
+	 * @param horizonDays Number of days that can be booked, days run from 0 to horizonDays - 1
+	 */
+	public OffHeapHotel(int[] roomNums, int horizonDays) {
+		this.horizonDays = horizonDays;
+		for(int i = 0; i < roomNums.length; i++) {
+			roomIndex.put(roomNums[i], i);
+		}
+
+		this.roomsPerSegment = Math.max(1, Integer.MAX_VALUE / (4 * horizonDays));
+		int segmentCount = (roomNums.length + roomsPerSegment - 1) / roomsPerSegment;
+		this.segments = new ByteBuffer[segmentCount];
+		for(int i = 0; i < segmentCount; i++) {
+			int rooms = Math.min(roomsPerSegment, roomNums.length - i * roomsPerSegment);
+			// direct buffers start zeroed, every room is free.
+			segments[i] = ByteBuffer.allocateDirect(rooms * horizonDays * 4).order(ByteOrder.nativeOrder());
+		}
+
+		this.locks = new ReentrantLock[Math.min(LOCK_STRIPES, Math.max(1, roomNums.length))];
+		for(int i = 0; i < locks.length; i++) {
+			locks[i] = new ReentrantLock();
+		}
+	}
+
+	@Override
+	public boolean roomBooked(int[] days, int roomNumber) {
+		if(days == null || days.length == 0) {
+			return false;
+		}
+		return conflicts(indexOf(roomNumber), days, 0);
+	}
+
+	@Override
+	public boolean roomsBooked(int[] days, int[] roomNums) {
+		for(int nextRoomNum : roomNums) {
+			if(conflicts(indexOf(nextRoomNum), days, 0)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean bookRoom(String bookingRef, int[] days, int roomNum) {
+		checkDays(days);
+		int room = indexOf(roomNum);
+
+		while(true) {
+			// like LockFreeHotel, booking with an existing reference replaces what it points to,
+			// so the rooms of the previous booking are locked as well.
+			Booking previous = bookings.get(bookingRef);
+			int[] lockedStripes = lockStripes(previous == null ? new int[] { room } : union(previous.rooms, room));
+			try {
+				if(bookings.get(bookingRef) != previous) {
+					continue;
+				}
+				if(conflicts(room, days, 0)) {
+					return false;
+				}
+				Booking booking = new Booking(newId(), new int[] { room }, Stay.of(days));
+				if(previous != null) {
+					clear(previous);
+					freeIds.add(previous.id);
+				}
+				fill(room, booking.stays, booking.id);
+				bookings.put(bookingRef, booking);
+				return true;
+			}
+			finally {
+				unlockStripes(lockedStripes);
+			}
+		}
+	}
+
+	@Override
+	public boolean bookRooms(String bookingRef, int[] days, int[] roomNums) throws NoSuchBookingException {
+		if(bookings.containsKey(bookingRef)) {
+			// bookingRef must be a new booking reference.
+			throw new NoSuchBookingException(bookingRef);
+		}
+		checkDays(days);
+		int[] rooms = indexesOf(roomNums);
+
+		int[] lockedStripes = lockStripes(rooms);
+		try {
+			for(int room : rooms) {
+				if(conflicts(room, days, 0)) {
+					return false;
+				}
+			}
+			Booking booking = new Booking(newId(), rooms, Stay.of(days));
+			if(bookings.putIfAbsent(bookingRef, booking) != null) {
+				// another caller booked with the same reference in the meantime.
+				freeIds.add(booking.id);
+				throw new NoSuchBookingException(bookingRef);
+			}
+			for(int room : rooms) {
+				fill(room, booking.stays, booking.id);
+			}
+			return true;
+		}
+		finally {
+			unlockStripes(lockedStripes);
+		}
+	}
+
+	@Override
+	public boolean updateBooking(String bookingRef, int[] days, int roomNum) throws NoSuchBookingException {
+		return updateBooking(bookingRef, days, new int[] { roomNum });
+	}
+
+	/**
+	 * Updates the existing booking, afterwards the reference holds the given days in exactly the given rooms.
+	 */
+	@Override
+	public boolean updateBooking(String bookingRef, int[] days, int[] roomNums) throws NoSuchBookingException {
+		checkDays(days);
+		int[] rooms = indexesOf(roomNums);
+
+		while(true) {
+			Booking current = bookings.get(bookingRef);
+			if(current == null) {
+				throw new NoSuchBookingException(bookingRef);
+			}
+			int[] lockedStripes = lockStripes(union(current.rooms, rooms));
+			try {
+				if(bookings.get(bookingRef) != current) {
+					// updated or cancelled before we got the locks.
+					continue;
+				}
+				for(int room : rooms) {
+					// the days the booking already has do not count as a conflict.
+					if(conflicts(room, days, current.id)) {
+						return false;
+					}
+				}
+				// the new days are taken before the dropped ones are freed, so the days the booking keeps
+				// never look free to the readers.
+				Booking updated = new Booking(current.id, rooms, Stay.of(days));
+				for(int room : rooms) {
+					fill(room, updated.stays, updated.id);
+				}
+				clearExcept(current, rooms, updated.stays);
+				bookings.put(bookingRef, updated);
+				return true;
+			}
+			finally {
+				unlockStripes(lockedStripes);
+			}
+		}
+	}
+
+	@Override
+	public void cancelBooking(String bookingRef) throws NoSuchBookingException {
+		while(true) {
+			Booking booking = bookings.get(bookingRef);
+			if(booking == null) {
+				throw new NoSuchBookingException(bookingRef);
+			}
+			int[] lockedStripes = lockStripes(booking.rooms);
+			try {
+				if(bookings.remove(bookingRef, booking)) {
+					clear(booking);
+					freeIds.add(booking.id);
+					return;
+				}
+			}
+			finally {
+				unlockStripes(lockedStripes);
+			}
+		}
+	}
+
+	/**
+	 * Checks if any of the days of the room is held by a booking other than the given one.
+	 * @param allowedId Id of the booking whose days do not count, 0 to count every booking
+	 */
+	private boolean conflicts(int room, int[] days, int allowedId) {
+		ByteBuffer segment = segments[room / roomsPerSegment];
+		int rowOffset = (room % roomsPerSegment) * horizonDays;
+		for(int day : days) {
+			if(day < 0 || day >= horizonDays) {
+				continue;
+			}
+			int owner = (int) CELL.getAcquire(segment, (rowOffset + day) * 4);
+			if(owner != 0 && owner != allowedId) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void fill(int room, Stay[] stays, int id) {
+		ByteBuffer segment = segments[room / roomsPerSegment];
+		int rowOffset = (room % roomsPerSegment) * horizonDays;
+		for(Stay stay : stays) {
+			for(int day = stay.checkIn; day < stay.checkOut; day++) {
+				CELL.setRelease(segment, (rowOffset + day) * 4, id);
+			}
+		}
+	}
+
+	/**
+	 * Frees every day the booking holds.
+	 */
+	private void clear(Booking booking) {
+		clearExcept(booking, new int[0], Stay.NONE);
+	}
+
+	/**
+	 * Frees the days the booking holds apart from the given stays in the given rooms.
+	 * Only the cells of the booking's own days are visited, not the whole calendar row.
+	 */
+	private void clearExcept(Booking booking, int[] keptRooms, Stay[] keptStays) {
+		for(int room : booking.rooms) {
+			boolean keepsRoom = false;
+			for(int keptRoom : keptRooms) {
+				keepsRoom |= keptRoom == room;
+			}
+			ByteBuffer segment = segments[room / roomsPerSegment];
+			int rowOffset = (room % roomsPerSegment) * horizonDays;
+			for(Stay stay : keepsRoom ? Stay.difference(booking.stays, keptStays) : booking.stays) {
+				for(int day = stay.checkIn; day < stay.checkOut; day++) {
+					int index = (rowOffset + day) * 4;
+					if((int) CELL.getAcquire(segment, index) == booking.id) {
+						CELL.setRelease(segment, index, 0);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets an id for a new booking, one of a cancelled booking if there is any.
+	 */
+	private int newId() {
+		Integer free = freeIds.poll();
+		if(free != null) {
+			return free;
+		}
+		int id = nextId.incrementAndGet();
+		if(id <= 0) {
+			// only reached with 2^31 - 1 bookings live at once, 0 and below would not be told apart from free.
+			nextId.decrementAndGet();
+			throw new IllegalStateException("Out of booking ids");
+		}
+		return id;
+	}
+
+	/**
+	 * Locks the stripes of the given rooms in ascending stripe order, so writers can not deadlock.
+	 * @return The locked stripes, pass them to unlockStripes
+	 */
+	private int[] lockStripes(int[] rooms) {
+		int[] stripes = new int[rooms.length];
+		for(int i = 0; i < rooms.length; i++) {
+			stripes[i] = rooms[i] % locks.length;
+		}
+		stripes = Arrays.stream(stripes).distinct().sorted().toArray();
+		for(int stripe : stripes) {
+			locks[stripe].lock();
+		}
+		return stripes;
+	}
+
+	private void unlockStripes(int[] stripes) {
+		for(int i = stripes.length - 1; i >= 0; i--) {
+			locks[stripes[i]].unlock();
+		}
+	}
+
+	private void checkDays(int[] days) {
+		for(int day : days) {
+			if(day < 0 || day >= horizonDays) {
+				throw new IllegalArgumentException("Day " + day + " is outside of the calendar of " + horizonDays + " days");
+			}
+		}
+	}
+
+	private int indexOf(int roomNum) {
+		// It is assumed that the passed roomNumber is valid
+		return roomIndex.get(roomNum);
+	}
+
+	private int[] indexesOf(int[] roomNums) {
+		return Arrays.stream(roomNums).distinct().map(this::indexOf).toArray();
+	}
+
+	private static int[] union(int[] rooms, int... more) {
+		int[] all = Arrays.copyOf(rooms, rooms.length + more.length);
+		System.arraycopy(more, 0, all, rooms.length, more.length);
+		return all;
+	}
+
+	/**
+	 * The id a booking reference writes into the matrix, the rooms it holds and its stays in each of them,
+	 * one interval per run of consecutive days. Never changed once created.
+	 */
+	private static final class Booking {
+		final int id;
+		final int[] rooms;
+		final Stay[] stays;
+
+		Booking(int id, int[] rooms, Stay[] stays) {
+			this.id = id;
+			this.rooms = rooms;
+			this.stays = stays;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package hotelSystem;
+
+/**
+ * Snapshot of the metrics of one Hotel operation. Latencies are in nanoseconds.
+ */
+public class OperationStats {
+
+	private final String name;
+	private final long count;
+	private final long rejected;
+	private final long failed;
+	private final long p50Nanos;
+	private final long p99Nanos;
+	private final long p999Nanos;
+	private final long maxNanos;
+
+	public OperationStats(String name, long count, long rejected, long failed, long p50Nanos, long p99Nanos, long p999Nanos, long maxNanos) {
+		this.name = name;
+		this.count = count;
+		this.rejected = rejected;
+		this.failed = failed;
+		this.p50Nanos = p50Nanos;
+		this.p99Nanos = p99Nanos;
+		this.p999Nanos = p999Nanos;
+		this.maxNanos = maxNanos;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the number of calls.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Gets the number of calls that returned false because of a conflict, only for bookings and updates.
+	 */
+	public long getRejected() {
+		return rejected;
+	}
+
+	/**
+	 * Gets the number of calls that threw, for example with NoSuchBookingException.
+	 */
+	public long getFailed() {
+		return failed;
+	}
+
+	public long getP50Nanos() {
+		return p50Nanos;
+	}
+
+	public long getP99Nanos() {
+		return p99Nanos;
+	}
+
+	public long getP999Nanos() {
+		return p999Nanos;
+	}
+
+	public long getMaxNanos() {
+		return maxNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s count=%d rejected=%d failed=%d p50=%dns p99=%dns p99.9=%dns max=%dns",
+				name, count, rejected, failed, p50Nanos, p99Nanos, p999Nanos, maxNanos);
+	}
+}
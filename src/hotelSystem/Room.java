@@ -1,104 +1,360 @@
-package hotelSystem;
-
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-//import java.util.concurrent.Semaphore;
-
-
-public class Room 
-{
-	public int number;
-	
-	// For Mapping the bookingRef with the days booked for this room.
-	Map<String,HashSet<Integer>> bookingRefDaysMapper = new ConcurrentHashMap<>();
-	
-	// Semaphore lock = new Semaphore(1);
-	
-	public Room(int num) {
-		this.number = num;		
-	}		
-	
-	/**
-	 * Books this room for given array of days with booking reference.
-	 * @param bookingRef The reference booking.
-	 * @param days Array of days to book this room.
-	 */
-	public void book(String bookingRef, Integer[] days)	{		
-			//lock.acquire();
-			
-			// if the booking reference already exists then we should update it, 
-	        // if its a new one then we should add.
-	        // it is safe to assume that there is no conflict for the days that are being passed in 
-	        // because the Hotel class already checks them.			
-	        if (!bookingRefDaysMapper.containsKey(bookingRef)) {
-	            // add new booking.
-	        	this.bookingRefDaysMapper.put(bookingRef, new HashSet<Integer>(Arrays.asList(days)));	            	        	
-	        }
-	        else {
-	            // update booking reference.	            
-	        	bookingRefDaysMapper.replace(bookingRef, new HashSet<Integer>(Arrays.asList(days)));	        	        	
-	        }
-	        
-	        //lock.release();
-	}
-	
-	/**
-	 * Gets all the days that are booked for this room regardless of the booking reference
-	 * @return The array containing the days that are booked for this room
-	 */
-	public Set<Integer> getAllBookedDays() {
-		Set<Integer> daysBooked = new HashSet<Integer>();
-		
-		// loop through all the bookingRefs that contain array of days of booking.
-		for(HashSet<Integer> days : bookingRefDaysMapper.values()) {
-			//  add each day of booking into the array to return.
-			for(int day : days) {
-				daysBooked.add(day);
-			}
-		}
-				
-		return daysBooked;
-	}
-	
-	/**
-	 * Gets all the days that are booked for this room except for the given booking reference.
-	 * @param skipBookingRef The reference to skip.
-	 * @return The array containing the days that are booked for this room except the given bookingRef
-	 */
-	public Set<Integer> getAllBookedDays(String skipBookingRef)	{
-		Set<Integer> daysBooked = new HashSet<Integer>();
-		
-		for(String key : bookingRefDaysMapper.keySet())	{
-			// skip the given booking reference and only return those booked for other booking references.
-			if(key != skipBookingRef) {
-				for(int day : bookingRefDaysMapper.get(key)) {
-					daysBooked.add(day);
-				}
-			}
-		}
-		return daysBooked;	
-	}
-	
-	/**
-	 * Removes the booking days for given reference
-	 * @param bookingRef The reference to remove
-	 * @throws NoSuchBookingException
-	 */
-	public void cancelBooking(String bookingRef) throws NoSuchBookingException	{
-			//lock.acquire();
-			
-			// if we already have a reference then remove it.
-	        if (bookingRefDaysMapper.containsKey(bookingRef)) {
-	            bookingRefDaysMapper.remove(bookingRef);	            
-	        }
-	        else {	        	
-	        	// throw NoSuchBookingException if the reference is invalid or already removed / deleted.
-	        	throw new NoSuchBookingException(bookingRef);
-	        }
-	        //lock.release();
-	}
-}
\ No newline at end of file
+package hotelSystem;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntPredicate;
+
+
+public class Room
+{
+	public int number;
+
+	// For Mapping the booking id with the stays booked for this room, in day order.
+	// Guarded by the room lock.
+	IntMap<Stay[]> bookingRefDaysMapper = new IntMap<Stay[]>();
+
+	// The booked stays of this room in check-in order. Stays of a room never overlap,
+	// so the stays that could overlap a given interval are found with one binary search.
+	// It is replaced, never changed, by book and cancelBooking so the checks read it without the lock.
+	volatile RoomCalendar calendar = RoomCalendar.EMPTY;
+
+	// Per room lock, serialises the writers of this room and guards bookingRefDaysMapper.
+	// Hotel holds it across the check and the booking so both happen atomically,
+	// it is reentrant so the methods below can take it again. Readers never take it.
+	final ReentrantLock lock = new ReentrantLock();
+
+	// Position of this room in the hotel, the hotel's free room index and its per day occupancy counters,
+	// kept up to date with the stays. Both are null for a room that is not part of a hotel.
+	final int index;
+	final RoomAvailabilityIndex availability;
+	final OccupancyCounters occupancy;
+
+	// Turns the booking references into the ids the maps above are keyed by, shared by all the rooms of a hotel.
+	final BookingRefDictionary refs;
+
+	public Room(int num) {
+		this(num, -1, null, null, new BookingRefDictionary());
+	}
+
+	Room(int num, int index, RoomAvailabilityIndex availability, OccupancyCounters occupancy, BookingRefDictionary refs) {
+		this.number = num;
+		this.index = index;
+		this.availability = availability;
+		this.occupancy = occupancy;
+		this.refs = refs;
+	}
+
+	/**
+	 * Books this room for given array of days with booking reference.
+	 * @param bookingRef The reference booking.
+	 * @param days Array of days to book this room.
+	 */
+	public void book(String bookingRef, Integer[] days)	{
+		book(bookingRef, Days.unbox(days));
+	}
+
+	/**
+	 * Books this room for given array of days with booking reference.
+	 * @param bookingRef The reference booking.
+	 * @param days Array of days to book this room.
+	 */
+	public void book(String bookingRef, int[] days)	{
+		book(refs.intern(bookingRef), Stay.of(days));
+	}
+
+	/**
+	 * Books this room from the check-in day up to, not including, the check-out day with booking reference.
+	 * @param bookingRef The reference booking.
+	 * @param checkIn First day of the stay.
+	 * @param checkOut Day the stay ends, must be after checkIn.
+	 */
+	public void book(String bookingRef, int checkIn, int checkOut) {
+		book(refs.intern(bookingRef), Stay.of(checkIn, checkOut));
+	}
+
+	/**
+	 * Books this room for given stays with the id of the booking reference.
+	 * @return The stays the booking held before and no longer holds, these days are free now
+	 */
+	Stay[] book(int bookingId, Stay[] stays) {
+		lock.lock();
+		try {
+			// if the booking reference already exists then we should update it,
+	        // if its a new one then we should add.
+	        // it is safe to assume that there is no conflict for the days that are being passed in
+	        // because the Hotel class already checks them.
+			Stay[] oldStays = bookingRefDaysMapper.put(bookingId, stays);
+	        if (oldStays == null) {
+	        	occupy(bookingId, stays);
+	        	return Stay.NONE;
+	        }
+
+	        // update booking reference. the calendar gets the new stays, it is one entry per stay,
+	        // but only the days that were added or removed are counted again, the days the booking
+	        // keeps stay booked in the occupancy counters and the free room index.
+	        calendar = calendar.change(oldStays, bookingId, stays);
+	        Stay[] freed = Stay.difference(oldStays, stays);
+	        markDays(freed, -1);
+	        markDays(Stay.difference(stays, oldStays), 1);
+	        return freed;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Checks if any of the given days is booked for this room.
+	 * @param days Array of days to check
+	 * @return True if at least one of the days is booked, false otherwise
+	 * @throws IllegalArgumentException if a day is negative or Integer.MAX_VALUE, as when booking it
+	 */
+	public boolean isBooked(int[] days) {
+		// one binary search per day on the calendar we read, so nothing is locked or allocated.
+		RoomCalendar current = calendar;
+		for(int day : days) {
+			Stay.checkDay(day);
+			if(current.overlaps(day, day + 1, BookingRefDictionary.NO_ID)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if any day from the check-in day up to, not including, the check-out day is booked for this room.
+	 * @return True if at least one of the days is booked, false otherwise
+	 */
+	public boolean isBooked(int checkIn, int checkOut) {
+		Stay.check(checkIn, checkOut);
+		return calendar.overlaps(checkIn, checkOut, BookingRefDictionary.NO_ID);
+	}
+
+	boolean isBooked(Stay[] stays) {
+		return isBookedByOther(stays, BookingRefDictionary.NO_ID);
+	}
+
+	/**
+	 * Checks if any of the given days is booked for this room by a booking reference other than the given one.
+	 * @param days Array of days to check
+	 * @param skipBookingRef The reference to ignore
+	 * @return True if at least one of the days is booked by another reference, false otherwise
+	 */
+	public boolean isBookedByOther(int[] days, String skipBookingRef) {
+		return isBookedByOther(Stay.of(days), refs.idOf(skipBookingRef));
+	}
+
+	/**
+	 * Checks if any of the given stays overlaps a stay of this room booked by a booking other than the given id.
+	 * @param skipBookingId The id to ignore, NO_ID to count every booking
+	 */
+	boolean isBookedByOther(Stay[] stays, int skipBookingId) {
+		RoomCalendar current = calendar;
+		for(Stay stay : stays) {
+			if(current.overlaps(stay.checkIn, stay.checkOut, skipBookingId)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if the booking id can be changed to the given stays in this room, that is if none of the days
+	 * it does not hold yet is booked. Only the added days are looked up, the days the booking keeps are its own.
+	 */
+	boolean canChangeTo(int bookingId, Stay[] stays) {
+		lock.lock();
+		try {
+			Stay[] current = bookingRefDaysMapper.get(bookingId);
+			return !isBooked(current == null ? stays : Stay.difference(stays, current));
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets all the days that are booked for this room regardless of the booking reference
+	 * @return The array containing the days that are booked for this room
+	 */
+	public Set<Integer> getAllBookedDays() {
+		return getAllBookedDays(BookingRefDictionary.NO_ID);
+	}
+
+	/**
+	 * Gets all the days that are booked for this room except for the given booking reference.
+	 * @param skipBookingRef The reference to skip.
+	 * @return The array containing the days that are booked for this room except the given bookingRef
+	 */
+	public Set<Integer> getAllBookedDays(String skipBookingRef)	{
+		return getAllBookedDays(refs.idOf(skipBookingRef));
+	}
+
+	private Set<Integer> getAllBookedDays(int skipBookingId) {
+		RoomCalendar current = calendar;
+		Set<Integer> daysBooked = new HashSet<Integer>();
+		for(int i = 0; i < current.size(); i++) {
+			// skip the given booking reference and only return those booked for other booking references.
+			if(current.bookingId(i) == skipBookingId) {
+				continue;
+			}
+			for(int day = current.checkIn(i); day < current.checkOut(i); day++) {
+				daysBooked.add(day);
+			}
+		}
+		return daysBooked;
+	}
+
+	/**
+	 * Removes the booking days for given reference
+	 * @param bookingRef The reference to remove
+	 * @throws NoSuchBookingException
+	 */
+	public void cancelBooking(String bookingRef) throws NoSuchBookingException	{
+		int bookingId = refs.idOf(bookingRef);
+		if(bookingId == BookingRefDictionary.NO_ID) {
+			throw new NoSuchBookingException(bookingRef);
+		}
+		cancelBooking(bookingId);
+	}
+
+	/**
+	 * Removes the booking days for the id of the booking reference.
+	 * @return The stays the booking held, these days are free now
+	 * @throws NoSuchBookingException
+	 */
+	Stay[] cancelBooking(int bookingId) throws NoSuchBookingException {
+		lock.lock();
+		try {
+			// if we already have a reference then remove it.
+			Stay[] stays = bookingRefDaysMapper.remove(bookingId);
+	        if (stays != null) {
+	            release(stays);
+	            return stays;
+	        }
+	        else {
+	        	// throw NoSuchBookingException if the reference is invalid or already removed / deleted.
+	        	throw new NoSuchBookingException(refs.refOf(bookingId));
+	        }
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the stays of the booking id from this room if it has any here, used when a booking moves to other rooms.
+	 * @return The stays the booking held, these days are free now
+	 */
+	Stay[] leave(int bookingId) {
+		lock.lock();
+		try {
+			Stay[] stays = bookingRefDaysMapper.remove(bookingId);
+			if(stays == null) {
+				return Stay.NONE;
+			}
+			release(stays);
+			return stays;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Copies the booking id to stays map of this room for a checkpoint.
+	 * The stay arrays are shared, they are never changed once they are in the map.
+	 */
+	IntMap<Stay[]> copyBookings() {
+		lock.lock();
+		try {
+			return bookingRefDaysMapper.copy();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Puts the bookings of a bulk import or of a checkpoint into this room in one go, without checking for conflicts.
+	 * The caller holds the room lock, for an import the importing thread holds it and this runs on one of its workers.
+	 * @param count Number of stays to take from the front of the arrays
+	 * @param checkIns Check-in days in ascending order, the stays do not overlap each other nor the booked stays
+	 * @param bookingStays All the stays of the booking of each entry, which are all in this room
+	 */
+	void importStays(int count, int[] checkIns, int[] checkOuts, int[] bookingIds, Stay[][] bookingStays) {
+		for(int i = 0; i < count; i++) {
+			// a booking has one entry per stay, it is counted at its first one.
+			if(bookingRefDaysMapper.get(bookingIds[i]) == null) {
+				bookingRefDaysMapper.put(bookingIds[i], bookingStays[i]);
+				markDays(bookingStays[i], 1);
+			}
+		}
+		// one new calendar for the whole batch instead of one per booking.
+		calendar = calendar.merge(count, checkIns, checkOuts, bookingIds);
+	}
+
+	/**
+	 * Removes the bookings whose stays in this room all ended by the given day and that the hotel found ended
+	 * in every room. Their days are before the day, which the hotel drops from its counters and its free room
+	 * index as a whole, so they are not released day by day.
+	 */
+	void removeEnded(int day, IntPredicate ended) {
+		lock.lock();
+		try {
+			// the stays do not overlap, so the ones that ended by the day are the first ones.
+			RoomCalendar current = calendar;
+			int count = 0;
+			while(count < current.size() && current.checkOut(count) <= day) {
+				count++;
+			}
+			for(int i = 0; i < count; i++) {
+				if(ended.test(current.bookingId(i))) {
+					bookingRefDaysMapper.remove(current.bookingId(i));
+				}
+			}
+			calendar = current.remove(count, ended);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Adds the given stays of the booking id to the booked stays.
+	 */
+	private void occupy(int bookingId, Stay[] stays) {
+		// caller holds the room lock.
+		calendar = calendar.change(Stay.NONE, bookingId, stays);
+		markDays(stays, 1);
+	}
+
+	/**
+	 * Removes the given stays from the booked stays.
+	 */
+	private void release(Stay[] stays) {
+		calendar = calendar.change(stays, BookingRefDictionary.NO_ID, Stay.NONE);
+		markDays(stays, -1);
+	}
+
+	/**
+	 * Counts the days of the stays as booked, or as free with a negative count, in the hotel's occupancy
+	 * counters and free room index. Both take the stay as a range, so a long stay costs no more than a short one.
+	 */
+	private void markDays(Stay[] stays, int count) {
+		for(Stay stay : stays) {
+			if(occupancy != null) {
+				occupancy.add(stay, count);
+			}
+			if(availability != null) {
+				if(count > 0) {
+					availability.markBooked(index, stay.checkIn, stay.checkOut);
+				}
+				else {
+					availability.markFree(index, stay.checkIn, stay.checkOut);
+				}
+			}
+		}
+	}
+}
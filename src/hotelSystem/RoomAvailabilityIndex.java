@@ -0,0 +1,249 @@
+package hotelSystem;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Booked days of every room of a hotel, kept in blocks of 64 days. A block has room bitmaps, bit R of word R / 64
+ * for the room with index R: the rooms booked on any day of the block, the rooms booked on every day of it,
+ * and for each day the rooms booked on that day but not on the whole block.
+ * Finding the rooms free for a stay is one AND per 64 rooms for every block the stay covers whole, and for every
+ * day of the blocks it covers in part. A stay over a whole block is one bit there, so booking a long stay does not
+ * walk it night by night either.
+ *
+ * The bitmaps are worked out from the booked days of each room in the block, one word per room. A block only
+ * holds those words for the groups of 64 rooms booked in it and the day bitmaps for the days booked in part,
+ * so a booking far ahead does not cost a word for every room and day of the hotel.
+ *
+ * Each room changes only its own bits while holding its room lock. Only the horizon roll clears the days of
+ * other rooms, with every room lock held, but the shared words are still changed with compare-and-set so the
+ * bits of other rooms in them are not lost.
+ */
+class RoomAvailabilityIndex {
+
+	private static final int BLOCK_DAYS = 64;
+
+	// Maps the block, day / BLOCK_DAYS, with its bitmaps, created on first booking in the block.
+	private final Map<Integer, Block> blocks = new ConcurrentHashMap<Integer, Block>();
+
+	private final int roomCount;
+	private final int roomWords;
+
+	RoomAvailabilityIndex(int roomCount) {
+		this.roomCount = roomCount;
+		this.roomWords = (roomCount + 63) / 64;
+	}
+
+	/**
+	 * Marks the room as booked from the check-in day up to, not including, the check-out day.
+	 */
+	void markBooked(int roomIndex, int checkIn, int checkOut) {
+		for(int block = checkIn / BLOCK_DAYS; block <= (checkOut - 1) / BLOCK_DAYS; block++) {
+			blocks.computeIfAbsent(block, b -> new Block(roomWords)).change(roomIndex, mask(block, checkIn, checkOut), true);
+		}
+	}
+
+	/**
+	 * Marks the room as free from the check-in day up to, not including, the check-out day.
+	 */
+	void markFree(int roomIndex, int checkIn, int checkOut) {
+		for(int block = checkIn / BLOCK_DAYS; block <= (checkOut - 1) / BLOCK_DAYS; block++) {
+			Block bitmaps = blocks.get(block);
+			if(bitmaps != null) {
+				bitmaps.change(roomIndex, mask(block, checkIn, checkOut), false);
+			}
+		}
+	}
+
+	/**
+	 * Drops the days before the given day, they are in the past. Called with every room lock held.
+	 */
+	void dropBefore(int day) {
+		int firstBlock = day / BLOCK_DAYS;
+		blocks.keySet().removeIf(block -> block < firstBlock);
+
+		// the block the day is in still has past days at its start.
+		Block bitmaps = blocks.get(firstBlock);
+		if(bitmaps != null && day % BLOCK_DAYS != 0) {
+			long past = mask(firstBlock, firstBlock * BLOCK_DAYS, day);
+			for(int roomIndex = 0; roomIndex < roomCount; roomIndex++) {
+				bitmaps.change(roomIndex, past, false);
+			}
+		}
+	}
+
+	/**
+	 * Finds the rooms that are free on all the given days.
+	 * @see #findFree(Stay[], int)
+	 */
+	int[] findFree(int[] days, int limit) {
+		return findFree(Stay.of(days), limit);
+	}
+
+	/**
+	 * Finds the rooms that are free from the check-in day up to, not including, the check-out day.
+	 * @see #findFree(Stay[], int)
+	 */
+	int[] findFree(int checkIn, int checkOut, int limit) {
+		return findFree(Stay.of(checkIn, checkOut), limit);
+	}
+
+	/**
+	 * Finds the rooms that are free for all the given stays.
+	 * The answer is weakly consistent, a room can be booked by someone else right after it is returned.
+	 * @param stays The stays
+	 * @param limit The maximum number of rooms to return
+	 * @return The indexes of the free rooms in ascending order, at most limit of them
+	 */
+	int[] findFree(Stay[] stays, int limit) {
+		// start with every room free and take out the booked ones, 64 rooms at a time.
+		long[] free = new long[roomWords];
+		Arrays.fill(free, -1L);
+		if(roomCount % 64 != 0) {
+			free[roomWords - 1] = (1L << roomCount) - 1;
+		}
+
+		for(Stay stay : stays) {
+			for(int block = stay.checkIn / BLOCK_DAYS; block <= (stay.checkOut - 1) / BLOCK_DAYS; block++) {
+				Block bitmaps = blocks.get(block);
+				if(bitmaps == null) {
+					// nobody is booked in this block.
+					continue;
+				}
+				long days = mask(block, stay.checkIn, stay.checkOut);
+				if(days == -1L) {
+					andNot(free, bitmaps.anyBooked);
+					continue;
+				}
+				andNot(free, bitmaps.allBooked);
+				for(long left = days; left != 0; left &= left - 1) {
+					AtomicLongArray dayRooms = bitmaps.partlyBookedDays.get(Long.numberOfTrailingZeros(left));
+					if(dayRooms != null) {
+						andNot(free, dayRooms);
+					}
+				}
+			}
+		}
+
+		int[] found = new int[Math.max(0, Math.min(limit, roomCount))];
+		int foundCount = 0;
+		for(int word = 0; word < roomWords && foundCount < found.length; word++) {
+			for(long left = free[word]; left != 0 && foundCount < found.length; left &= left - 1) {
+				found[foundCount++] = word * 64 + Long.numberOfTrailingZeros(left);
+			}
+		}
+		return foundCount == found.length ? found : Arrays.copyOf(found, foundCount);
+	}
+
+	private static void andNot(long[] free, AtomicLongArray booked) {
+		for(int word = 0; word < free.length; word++) {
+			free[word] &= ~booked.get(word);
+		}
+	}
+
+	/**
+	 * Gets the bits of the days of [checkIn, checkOut) that are in the block.
+	 */
+	private static long mask(int block, int checkIn, int checkOut) {
+		long first = (long) block * BLOCK_DAYS;
+		int from = (int) Math.max(0, checkIn - first);
+		int to = (int) Math.min(BLOCK_DAYS, checkOut - first);
+		// -1L >>> 64 would be -1 again, so a full block is spelled out.
+		long upTo = to == BLOCK_DAYS ? -1L : (1L << to) - 1;
+		return upTo & -1L << from;
+	}
+
+	/**
+	 * Sets or clears the bit of a room in a shared room bitmap word.
+	 */
+	private static void setRoom(AtomicLongArray rooms, int roomIndex, boolean booked) {
+		long bit = 1L << roomIndex;
+		long current;
+		do {
+			current = rooms.get(roomIndex >>> 6);
+		} while((current & bit) != (booked ? bit : 0)
+				&& !rooms.compareAndSet(roomIndex >>> 6, current, booked ? current | bit : current & ~bit));
+	}
+
+	/**
+	 * The bitmaps of one block of 64 days.
+	 */
+	private static final class Block {
+
+		// Rooms booked on at least one day of the block, and rooms booked on all of its days.
+		final AtomicLongArray anyBooked;
+		final AtomicLongArray allBooked;
+
+		// For each day of the block the rooms booked that day that are not in allBooked, created on first use.
+		final AtomicReferenceArray<AtomicLongArray> partlyBookedDays = new AtomicReferenceArray<AtomicLongArray>(BLOCK_DAYS);
+
+		// For each group of 64 rooms the booked days of each room, bit D for the D-th day of the block.
+		// Created for the first room of the group booked in the block. The bitmaps above are worked out from these.
+		final AtomicReferenceArray<AtomicLongArray> roomDays;
+
+		final int roomWords;
+
+		Block(int roomWords) {
+			this.roomWords = roomWords;
+			this.anyBooked = new AtomicLongArray(roomWords);
+			this.allBooked = new AtomicLongArray(roomWords);
+			this.roomDays = new AtomicReferenceArray<AtomicLongArray>(roomWords);
+		}
+
+		/**
+		 * Marks the days of the block as booked or free for the room. Called with the room lock held.
+		 */
+		void change(int roomIndex, long days, boolean booked) {
+			AtomicLongArray group = roomDays.get(roomIndex >>> 6);
+			if(group == null) {
+				if(!booked) {
+					return;
+				}
+				roomDays.compareAndSet(roomIndex >>> 6, null, new AtomicLongArray(64));
+				group = roomDays.get(roomIndex >>> 6);
+			}
+
+			// only the holder of the room lock changes the word of the room.
+			long before = group.get(roomIndex & 63);
+			long after = booked ? before | days : before & ~days;
+			if(after == before) {
+				return;
+			}
+			group.set(roomIndex & 63, after);
+
+			// the bits that say the room is booked are set before and cleared after the day bitmaps change,
+			// so a reader never sees a day the room keeps as free.
+			if(after != 0) {
+				setRoom(anyBooked, roomIndex, true);
+			}
+			if(after == -1L) {
+				setRoom(allBooked, roomIndex, true);
+			}
+			// a room booked on the whole block is only in allBooked, the day bitmaps have the rooms booked in part.
+			long partBefore = before == -1L ? 0 : before;
+			long partAfter = after == -1L ? 0 : after;
+			for(long changed = partBefore ^ partAfter; changed != 0; changed &= changed - 1) {
+				int day = Long.numberOfTrailingZeros(changed);
+				setRoom(dayRooms(day), roomIndex, (partAfter & 1L << day) != 0);
+			}
+			if(after != -1L) {
+				setRoom(allBooked, roomIndex, false);
+			}
+			if(after == 0) {
+				setRoom(anyBooked, roomIndex, false);
+			}
+		}
+
+		private AtomicLongArray dayRooms(int day) {
+			AtomicLongArray rooms = partlyBookedDays.get(day);
+			if(rooms == null) {
+				partlyBookedDays.compareAndSet(day, null, new AtomicLongArray(roomWords));
+				rooms = partlyBookedDays.get(day);
+			}
+			return rooms;
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package hotelSystem;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Immutable calendar of one room: its booked stays in check-in order with the id of the booking holding each.
+ * A room publishes a new calendar for every change, so readers use whichever calendar they read last
+ * without any locking and are never held up by a booking in progress, nor hold one up.
+ *
+ * Every calendar of a room has a higher version than the one it replaced, so a version identifies the state
+ * of the room without holding on to the calendar. The stays are kept in three parallel arrays. They never overlap, so both the check-in and the check-out
+ * days are in ascending order and an overlap is found with one binary search.
+ */
+final class RoomCalendar {
+
+	static final RoomCalendar EMPTY = new RoomCalendar(new int[0], new int[0], new int[0], 0);
+
+	// Number of changes made to the room up to this calendar.
+	final long version;
+
+	private final int[] checkIns;
+	private final int[] checkOuts;
+	private final int[] bookingIds;
+
+	private RoomCalendar(int[] checkIns, int[] checkOuts, int[] bookingIds, long version) {
+		this.version = version;
+		this.checkIns = checkIns;
+		this.checkOuts = checkOuts;
+		this.bookingIds = bookingIds;
+	}
+
+	int size() {
+		return checkIns.length;
+	}
+
+	int checkIn(int i) {
+		return checkIns[i];
+	}
+
+	int checkOut(int i) {
+		return checkOuts[i];
+	}
+
+	int bookingId(int i) {
+		return bookingIds[i];
+	}
+
+	/**
+	 * Checks if [checkIn, checkOut) overlaps a stay of a booking other than the given id.
+	 * @param skipBookingId The id to ignore, NO_ID to count every booking
+	 */
+	boolean overlaps(int checkIn, int checkOut, int skipBookingId) {
+		// walk back from the last stay that starts before checkOut and stop at the first one that ends in time.
+		// without a booking to skip this looks at one stay at most.
+		for(int i = lastStartingBefore(checkOut); i >= 0; i--) {
+			if(checkOuts[i] <= checkIn) {
+				return false;
+			}
+			if(bookingIds[i] != skipBookingId) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the free days around [checkIn, checkOut), from the end of the stay before it to the start of the stay after it.
+	 * @return The first free day in the high half and the day the next stay starts in the low half,
+	 *         Integer.MAX_VALUE if none follows. -1 if [checkIn, checkOut) overlaps a stay
+	 */
+	long freeGap(int checkIn, int checkOut) {
+		int before = lastStartingBefore(checkOut);
+		if(before >= 0 && checkOuts[before] > checkIn) {
+			return -1;
+		}
+		// stays do not overlap, so the one after the last starting before checkOut starts on checkOut or later.
+		long gapStart = before >= 0 ? checkOuts[before] : 0;
+		int gapEnd = before + 1 < checkIns.length ? checkIns[before + 1] : Integer.MAX_VALUE;
+		return gapStart << 32 | gapEnd;
+	}
+
+	/**
+	 * Finds the runs of at least minDays free days within [fromDay, toDay), from the gaps between the stays.
+	 * @return The first day and the day after the last day of every run, two entries per run in day order
+	 */
+	int[] freeRuns(int fromDay, int toDay, int minDays) {
+		int[] runs = new int[8];
+		int count = 0;
+		// start at the last stay that checks in on or before fromDay, the ones before it end earlier.
+		int i = Math.max(0, lastStartingBefore(fromDay + 1));
+		int free = fromDay;
+		for(; i < checkIns.length && checkIns[i] < toDay; i++) {
+			if(checkIns[i] - free >= minDays) {
+				if(count == runs.length) {
+					runs = Arrays.copyOf(runs, count * 2);
+				}
+				runs[count++] = free;
+				runs[count++] = checkIns[i];
+			}
+			free = Math.max(free, checkOuts[i]);
+		}
+		if(toDay - free >= minDays) {
+			if(count == runs.length) {
+				runs = Arrays.copyOf(runs, count + 2);
+			}
+			runs[count++] = free;
+			runs[count++] = toDay;
+		}
+		return Arrays.copyOf(runs, count);
+	}
+
+	/**
+	 * Gets a calendar with the removed stays taken out and the added stays of the booking id put in.
+	 * @param removed Stays that are in this calendar, in day order
+	 * @param bookingId Id of the booking the added stays belong to
+	 * @param added Stays that do not overlap the ones left, in day order
+	 */
+	RoomCalendar change(Stay[] removed, int bookingId, Stay[] added) {
+		if(removed.length == 0 && added.length == 0) {
+			return this;
+		}
+		int length = checkIns.length - removed.length + added.length;
+		int[] newCheckIns = new int[length];
+		int[] newCheckOuts = new int[length];
+		int[] newBookingIds = new int[length];
+
+		// merge the kept stays with the added ones, both are in check-in order.
+		int next = 0;
+		int r = 0;
+		int a = 0;
+		for(int i = 0; i <= checkIns.length; i++) {
+			int keepUpTo = i < checkIns.length ? checkIns[i] : Integer.MAX_VALUE;
+			while(a < added.length && added[a].checkIn < keepUpTo) {
+				newCheckIns[next] = added[a].checkIn;
+				newCheckOuts[next] = added[a].checkOut;
+				newBookingIds[next] = bookingId;
+				next++;
+				a++;
+			}
+			if(i == checkIns.length) {
+				break;
+			}
+			if(r < removed.length && removed[r].checkIn == checkIns[i]) {
+				r++;
+				continue;
+			}
+			newCheckIns[next] = checkIns[i];
+			newCheckOuts[next] = checkOuts[i];
+			newBookingIds[next] = bookingIds[i];
+			next++;
+		}
+		return new RoomCalendar(newCheckIns, newCheckOuts, newBookingIds, version + 1);
+	}
+
+	/**
+	 * Gets a calendar with a batch of stays of any number of bookings put in, used by the bulk import.
+	 * @param count Number of stays to take from the front of the arrays
+	 * @param checkIns Check-in days of the added stays, in ascending order
+	 * @param checkOuts Check-out days of the added stays, they do not overlap each other nor the stays of this calendar
+	 * @param ids Booking id of each added stay
+	 */
+	RoomCalendar merge(int count, int[] checkIns, int[] checkOuts, int[] ids) {
+		if(count == 0) {
+			return this;
+		}
+		int length = this.checkIns.length + count;
+		int[] newCheckIns = new int[length];
+		int[] newCheckOuts = new int[length];
+		int[] newBookingIds = new int[length];
+
+		int i = 0;
+		int a = 0;
+		for(int next = 0; next < length; next++) {
+			if(a < count && (i == this.checkIns.length || checkIns[a] < this.checkIns[i])) {
+				newCheckIns[next] = checkIns[a];
+				newCheckOuts[next] = checkOuts[a];
+				newBookingIds[next] = ids[a];
+				a++;
+			}
+			else {
+				newCheckIns[next] = this.checkIns[i];
+				newCheckOuts[next] = this.checkOuts[i];
+				newBookingIds[next] = bookingIds[i];
+				i++;
+			}
+		}
+		return new RoomCalendar(newCheckIns, newCheckOuts, newBookingIds, version + 1);
+	}
+
+	/**
+	 * Gets a calendar without the stays of the given booking ids among the first stays, in one pass
+	 * instead of one new calendar per booking.
+	 * @param count Number of stays from the start that may be removed
+	 */
+	RoomCalendar remove(int count, IntPredicate bookingIds) {
+		int[] newCheckIns = new int[checkIns.length];
+		int[] newCheckOuts = new int[checkIns.length];
+		int[] newBookingIds = new int[checkIns.length];
+		int next = 0;
+		for(int i = 0; i < checkIns.length; i++) {
+			if(i < count && bookingIds.test(this.bookingIds[i])) {
+				continue;
+			}
+			newCheckIns[next] = checkIns[i];
+			newCheckOuts[next] = checkOuts[i];
+			newBookingIds[next] = this.bookingIds[i];
+			next++;
+		}
+		if(next == checkIns.length) {
+			return this;
+		}
+		return new RoomCalendar(Arrays.copyOf(newCheckIns, next), Arrays.copyOf(newCheckOuts, next),
+				Arrays.copyOf(newBookingIds, next), version + 1);
+	}
+
+	/**
+	 * Gets the index of the last stay that starts before the day, -1 if there is none.
+	 */
+	private int lastStartingBefore(int day) {
+		int found = Arrays.binarySearch(checkIns, day);
+		// an exact match starts on the day itself, so the one before it is the last one starting earlier.
+		return found >= 0 ? found - 1 : -found - 2;
+	}
+}
@@ -0,0 +1,155 @@
+package hotelSystem;
+
+import java.util.Arrays;
+
+/**
+ * A stay in a room as the half-open day interval [checkIn, checkOut), the guest leaves on the check-out day.
+ * A booking made with an array of days is kept as the runs of consecutive days in it, so a long stay
+ * costs one interval instead of one entry per night. Never changed once created.
+ */
+final class Stay {
+
+	static final Stay[] NONE = new Stay[0];
+
+	final int checkIn;
+	final int checkOut;
+
+	/**
+	 * @throws IllegalArgumentException if check-in is negative or check-out is not after check-in
+	 */
+	Stay(int checkIn, int checkOut) {
+		check(checkIn, checkOut);
+		this.checkIn = checkIn;
+		this.checkOut = checkOut;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if check-in is negative or check-out is not after check-in
+	 */
+	static void check(int checkIn, int checkOut) {
+		if(checkIn < 0) {
+			throw new IllegalArgumentException("Day must not be negative: " + checkIn);
+		}
+		if(checkOut <= checkIn) {
+			throw new IllegalArgumentException("Check-out day " + checkOut + " must be after check-in day " + checkIn);
+		}
+	}
+
+	/**
+	 * Checks a day given on its own, its stay [day, day + 1) must fit in an int.
+	 * @throws IllegalArgumentException if the day is negative or Integer.MAX_VALUE
+	 */
+	static void checkDay(int day) {
+		if(day < 0) {
+			throw new IllegalArgumentException("Day must not be negative: " + day);
+		}
+		if(day == Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Day must be before " + Integer.MAX_VALUE);
+		}
+	}
+
+	/**
+	 * Gets the single stay from check-in to check-out.
+	 */
+	static Stay[] of(int checkIn, int checkOut) {
+		return new Stay[] { new Stay(checkIn, checkOut) };
+	}
+
+	/**
+	 * Converts an array of days in any order to its runs of consecutive days, in day order.
+	 * @param days The days, duplicates are allowed, null means no days
+	 * @throws IllegalArgumentException if a day is negative or Integer.MAX_VALUE, see checkDay
+	 */
+	static Stay[] of(int[] days) {
+		if(days == null || days.length == 0) {
+			return NONE;
+		}
+		int[] sorted = days.clone();
+		Arrays.sort(sorted);
+		// the smallest and the largest day are enough, the others are in between.
+		checkDay(sorted[0]);
+		checkDay(sorted[sorted.length - 1]);
+
+		Stay[] runs = new Stay[sorted.length];
+		int count = 0;
+		int start = sorted[0];
+		for(int i = 1; i <= sorted.length; i++) {
+			// a run ends at the end of the array or where the next day is not the next one.
+			if(i == sorted.length || sorted[i] > sorted[i - 1] + 1) {
+				runs[count++] = new Stay(start, sorted[i - 1] + 1);
+				if(i < sorted.length) {
+					start = sorted[i];
+				}
+			}
+		}
+		return Arrays.copyOf(runs, count);
+	}
+
+	/**
+	 * Gets all the days of the stays in day order, used where a day array is still needed such as Days.range.
+	 */
+	static int[] toDays(Stay[] stays) {
+		int length = 0;
+		for(Stay stay : stays) {
+			length += stay.checkOut - stay.checkIn;
+		}
+		int[] days = new int[length];
+		int next = 0;
+		for(Stay stay : stays) {
+			for(int day = stay.checkIn; day < stay.checkOut; day++) {
+				days[next++] = day;
+			}
+		}
+		return days;
+	}
+
+	/**
+	 * Gets the days of the first stays that are not in the second ones, as stays.
+	 * Both arrays must be in day order without overlaps, as every Stay array made here is.
+	 */
+	static Stay[] difference(Stay[] stays, Stay[] minus) {
+		if(minus.length == 0) {
+			return stays;
+		}
+		Stay[] result = new Stay[stays.length + minus.length];
+		int count = 0;
+		int m = 0;
+		for(Stay stay : stays) {
+			int from = stay.checkIn;
+			// skip the stays of minus that end before this one starts, they can not cut the later stays either.
+			while(m < minus.length && minus[m].checkOut <= from) {
+				m++;
+			}
+			int cut = m;
+			while(from < stay.checkOut && cut < minus.length && minus[cut].checkIn < stay.checkOut) {
+				if(minus[cut].checkIn > from) {
+					result[count++] = new Stay(from, minus[cut].checkIn);
+				}
+				from = Math.max(from, minus[cut].checkOut);
+				cut++;
+			}
+			if(from < stay.checkOut) {
+				if(from == stay.checkIn) {
+					// nothing was cut, keep the same object.
+					result[count++] = stay;
+				}
+				else {
+					result[count++] = new Stay(from, stay.checkOut);
+				}
+			}
+		}
+		return count == result.length ? result : Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * Checks if this stay shares at least one day with [checkIn, checkOut).
+	 */
+	boolean overlaps(int checkIn, int checkOut) {
+		return this.checkIn < checkOut && checkIn < this.checkOut;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + checkIn + ", " + checkOut + ")";
+	}
+}
@@ -0,0 +1,601 @@
+package hotelSystem;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs a seeded, heavily contended booking workload against an engine and checks the recorded history.
+ *
+ * Every thread books, updates and cancels its own booking references and queries the rooms of everyone,
+ * all on a handful of rooms and days so the threads fight over the same calendar cells. Calls go through
+ * both the day array and the check-in/check-out API, and updates move bookings to other rooms too. Each call is
+ * recorded with the time it was made and the time it returned. Because a reference is only ever used by
+ * its own thread, the history tells exactly which cells a booking held between its calls, and the checker
+ * reports any outcome no order of the overlapping calls could explain:
+ *
+ * - double booking: two bookings certainly holding the same room on the same day at the same time
+ * - false rejection: a booking or update refused although nobody else could have held any of its days
+ * - wrong answer: roomBooked saying free while a booking certainly held the day, or booked while nobody could have
+ * - lost cancellation or lost booking: the final calendar not matching the bookings that are still alive
+ *
+ * On the locking engine the threads also wait for rooms through the waitlist, a call that either books or
+ * is cancelled after a short wait, and a roller thread keeps rolling the horizon: it books stays of its own on the
+ * days before the workload's and rolls past them, so archiving runs against the workload without ever ending
+ * one of its bookings. Every roller stay must be archived, and none of the workload's lost. The "locking+cache"
+ * engine is the locking engine with the availability cache turned on.
+ *
+ * Usage: StressHarness [engine|all] [threads] [operations per thread] [rooms] [days] [seed]
+ * Exits with status 1 if any engine breaks an invariant.
+ */
+public class StressHarness {
+
+	// Longest stay the workload books, in days.
+	private static final int MAX_STAY = 4;
+
+	// How many violations of each engine are printed.
+	private static final int MAX_REPORTED = 10;
+
+	// The locking engine with the availability cache on.
+	static final String LOCKING_CACHED = "locking+cache";
+
+	// On the locking engine the workload's days start here, the days before are the roller's.
+	private static final int ROLL_DAYS = 100;
+
+	// How long a waitlist call waits for its room before giving up.
+	private static final long WAIT_MICROS = 200;
+
+	private enum Kind { QUERY, QUERY_ROOMS, BOOK, BOOK_ROOMS, WAIT, UPDATE, CANCEL }
+
+	private final String engineName;
+	private final int threads;
+	private final int operationsPerThread;
+	private final int rooms;
+	private final int days;
+	private final long seed;
+
+	private BookingEngine engine;
+	private List<List<Event>> histories;
+
+	// Engine day of the workload's day 0.
+	private int firstDay;
+
+	// Bookings the roller made and rolled away, only on the locking engine.
+	private int rollerBooked;
+	private int rollerArchived;
+	private Exception rollerError;
+
+	public StressHarness(String engineName, int threads, int operationsPerThread, int rooms, int days, long seed) {
+		this.engineName = engineName;
+		this.threads = threads;
+		this.operationsPerThread = operationsPerThread;
+		this.rooms = rooms;
+		this.days = days;
+		this.seed = seed;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		String engine = args.length > 0 ? args[0] : "all";
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Math.max(4, Runtime.getRuntime().availableProcessors());
+		int operations = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+		int rooms = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+		int days = args.length > 4 ? Integer.parseInt(args[4]) : 32;
+		long seed = args.length > 5 ? Long.parseLong(args[5]) : 42;
+
+		String[] engines = engine.equals("all")
+				? new String[] { BookingEngine.LOCKING, LOCKING_CACHED, BookingEngine.LOCK_FREE, BookingEngine.OFF_HEAP }
+				: new String[] { engine };
+
+		boolean failed = false;
+		for(String name : engines) {
+			StressHarness harness = new StressHarness(name, threads, operations, rooms, days, seed);
+			long elapsedNanos = harness.run();
+			List<String> violations = harness.check();
+
+			System.out.println(String.format("%-13s %d threads x %d operations on %d rooms x %d days, seed %d: %.0f operations/s, %s",
+					name, threads, operations, rooms, days, seed, threads * (double) operations / (elapsedNanos / 1e9),
+					violations.isEmpty() ? "OK" : violations.size() + " violations"));
+			for(int i = 0; i < Math.min(MAX_REPORTED, violations.size()); i++) {
+				System.out.println("  " + violations.get(i));
+			}
+			failed |= !violations.isEmpty();
+		}
+		if(failed) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Runs the workload on a new engine, all threads start at the same time.
+	 * @return The time the workload took
+	 */
+	public long run() throws InterruptedException {
+		int[] roomNums = new int[rooms];
+		for(int i = 0; i < rooms; i++) {
+			roomNums[i] = i + 1;
+		}
+		engine = newEngine(roomNums);
+		histories = new ArrayList<List<Event>>();
+		firstDay = engine instanceof Hotel ? ROLL_DAYS : 0;
+
+		CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for(int t = 0; t < threads; t++) {
+			List<Event> history = new ArrayList<Event>(operationsPerThread);
+			histories.add(history);
+			int threadId = t;
+			workers[t] = new Thread(() -> work(threadId, history, start), "stress-" + t);
+			workers[t].start();
+		}
+
+		Thread roller = null;
+		boolean[] stop = new boolean[1];
+		if(engine instanceof Hotel) {
+			roller = new Thread(() -> roll((Hotel) engine, stop), "stress-roll");
+			roller.start();
+		}
+
+		long startNanos = System.nanoTime();
+		start.countDown();
+		for(Thread worker : workers) {
+			worker.join();
+		}
+		long elapsedNanos = System.nanoTime() - startNanos;
+		if(roller != null) {
+			synchronized(stop) {
+				stop[0] = true;
+			}
+			roller.join();
+		}
+		return elapsedNanos;
+	}
+
+	private BookingEngine newEngine(int[] roomNums) {
+		if(!engineName.equals(LOCKING_CACHED)) {
+			return BookingEngine.create(engineName, roomNums);
+		}
+		// the hotel reads the cache size when it is created.
+		String previous = System.setProperty(AvailabilityCache.SIZE_PROPERTY, "1024");
+		try {
+			return new Hotel(roomNums);
+		}
+		finally {
+			if(previous == null) {
+				System.clearProperty(AvailabilityCache.SIZE_PROPERTY);
+			}
+			else {
+				System.setProperty(AvailabilityCache.SIZE_PROPERTY, previous);
+			}
+		}
+	}
+
+	/**
+	 * Books short stays on the days before the workload's and rolls the horizon past them, until stopped.
+	 * Ends with a roll to the workload's first day, which must archive every stay the roller booked.
+	 */
+	private void roll(Hotel hotel, boolean[] stop) {
+		SplittableRandom random = new SplittableRandom(seed * 31 - 1);
+		Path archive = null;
+		try {
+			archive = Files.createTempFile("stress-roll", ".csv");
+			int today = 0;
+			while(true) {
+				synchronized(stop) {
+					if(stop[0]) {
+						break;
+					}
+				}
+				if(today < firstDay && hotel.bookRoom("roll-" + rollerBooked, today, Math.min(firstDay, today + 3), room(random))) {
+					rollerBooked++;
+				}
+				rollerArchived += hotel.rollHorizon(today, archive);
+				today = Math.min(firstDay, today + random.nextInt(2));
+			}
+			rollerArchived += hotel.rollHorizon(firstDay, archive);
+		}
+		catch(IOException | RuntimeException e) {
+			rollerError = e;
+		}
+		finally {
+			if(archive != null) {
+				try {
+					Files.deleteIfExists(archive);
+				}
+				catch(IOException e) {
+					rollerError = rollerError == null ? e : rollerError;
+				}
+			}
+		}
+	}
+
+	private void work(int threadId, List<Event> history, CountDownLatch start) {
+		// the operations of a thread only depend on the seed and on the answers it gets.
+		SplittableRandom random = new SplittableRandom(seed * 31 + threadId);
+		List<String> alive = new ArrayList<String>();
+		Map<String, int[]> roomsOf = new HashMap<String, int[]>();
+		int nextRef = 0;
+
+		try {
+			start.await();
+		}
+		catch(InterruptedException e) {
+			return;
+		}
+
+		for(int i = 0; i < operationsPerThread; i++) {
+			int roll = random.nextInt(100);
+			Kind kind = roll < 30 ? Kind.QUERY : roll < 40 ? Kind.QUERY_ROOMS : roll < 60 ? Kind.BOOK : roll < 65 ? Kind.BOOK_ROOMS
+					: roll < 70 ? Kind.WAIT : roll < 85 ? Kind.UPDATE : Kind.CANCEL;
+			if((kind == Kind.UPDATE || kind == Kind.CANCEL) && alive.isEmpty() || kind == Kind.WAIT && !(engine instanceof Hotel)) {
+				kind = Kind.BOOK;
+			}
+
+			Event event = new Event(kind);
+			event.interval = random.nextBoolean();
+			if(kind == Kind.QUERY) {
+				event.rooms = new int[] { room(random) };
+			}
+			else if(kind == Kind.QUERY_ROOMS) {
+				event.rooms = rooms(random);
+			}
+			else if(kind == Kind.BOOK || kind == Kind.BOOK_ROOMS || kind == Kind.WAIT) {
+				event.ref = "t" + threadId + "-" + nextRef++;
+				event.rooms = kind == Kind.BOOK_ROOMS ? rooms(random) : new int[] { room(random) };
+			}
+			else {
+				event.ref = alive.get(random.nextInt(alive.size()));
+				// half the updates keep the rooms of the booking, the others move it to other rooms.
+				event.rooms = kind == Kind.CANCEL || random.nextBoolean() ? roomsOf.get(event.ref) : rooms(random);
+			}
+			if(kind != Kind.CANCEL) {
+				event.days = stay(random);
+			}
+
+			call(event);
+			history.add(event);
+
+			if(event.error == null && event.result) {
+				if(kind == Kind.BOOK || kind == Kind.BOOK_ROOMS || kind == Kind.WAIT) {
+					alive.add(event.ref);
+					roomsOf.put(event.ref, event.rooms);
+				}
+				else if(kind == Kind.UPDATE) {
+					roomsOf.put(event.ref, event.rooms);
+				}
+				else if(kind == Kind.CANCEL) {
+					alive.remove(event.ref);
+					roomsOf.remove(event.ref);
+				}
+			}
+		}
+	}
+
+	private void call(Event event) {
+		// the stays are consecutive days, so each call can go through either API.
+		int[] days = null;
+		int checkIn = 0;
+		int checkOut = 0;
+		if(event.days != null) {
+			days = new int[event.days.length];
+			for(int i = 0; i < days.length; i++) {
+				days[i] = firstDay + event.days[i];
+			}
+			checkIn = days[0];
+			checkOut = days[days.length - 1] + 1;
+		}
+
+		event.invoked = System.nanoTime();
+		try {
+			switch(event.kind) {
+			case QUERY:
+				event.result = event.interval
+						? engine.roomBooked(checkIn, checkOut, event.rooms[0]) : engine.roomBooked(days, event.rooms[0]);
+				break;
+			case QUERY_ROOMS:
+				event.result = event.interval
+						? engine.roomsBooked(checkIn, checkOut, event.rooms) : engine.roomsBooked(days, event.rooms);
+				break;
+			case BOOK:
+				event.result = event.interval
+						? engine.bookRoom(event.ref, checkIn, checkOut, event.rooms[0]) : engine.bookRoom(event.ref, days, event.rooms[0]);
+				break;
+			case BOOK_ROOMS:
+				event.result = event.interval
+						? engine.bookRooms(event.ref, checkIn, checkOut, event.rooms) : engine.bookRooms(event.ref, days, event.rooms);
+				break;
+			case WAIT:
+				Hotel hotel = (Hotel) engine;
+				CompletableFuture<Boolean> booked = event.interval
+						? hotel.bookRoomWhenFree(event.ref, checkIn, checkOut, event.rooms[0])
+						: hotel.bookRoomWhenFree(event.ref, days, event.rooms[0]);
+				try {
+					event.result = booked.get(WAIT_MICROS, TimeUnit.MICROSECONDS);
+				}
+				catch(TimeoutException e) {
+					// a request booked while it is being cancelled counts as booked.
+					event.result = !booked.cancel(false) && booked.join();
+				}
+				break;
+			case UPDATE:
+				event.result = event.interval
+						? engine.updateBooking(event.ref, checkIn, checkOut, event.rooms) : engine.updateBooking(event.ref, days, event.rooms);
+				break;
+			case CANCEL:
+				engine.cancelBooking(event.ref);
+				event.result = true;
+				break;
+			}
+		}
+		catch(Exception e) {
+			event.error = e;
+		}
+		event.responded = System.nanoTime();
+	}
+
+	private int room(SplittableRandom random) {
+		return random.nextInt(rooms) + 1;
+	}
+
+	/**
+	 * Gets two neighbouring rooms, or the only one.
+	 */
+	private int[] rooms(SplittableRandom random) {
+		int first = room(random);
+		return rooms == 1 ? new int[] { first } : new int[] { first, first % rooms + 1 };
+	}
+
+	private int[] stay(SplittableRandom random) {
+		int length = 1 + random.nextInt(Math.min(MAX_STAY, days));
+		int first = random.nextInt(days - length + 1);
+		int[] stay = new int[length];
+		for(int i = 0; i < length; i++) {
+			stay[i] = first + i;
+		}
+		return stay;
+	}
+
+	/**
+	 * Checks the history of the last run and the final state of the engine.
+	 * @return A description of every violation found, empty if the engine behaved
+	 */
+	public List<String> check() {
+		List<String> violations = new ArrayList<String>();
+
+		// replay the history of every reference in its thread's order to find when it held which cells.
+		Map<Long, List<Hold>> holdsByCell = new HashMap<Long, List<Hold>>();
+		List<Event> rejections = new ArrayList<Event>();
+		List<Event> queries = new ArrayList<Event>();
+		Map<String, Set<Long>> heldCells = new HashMap<String, Set<Long>>();
+		Map<String, Map<Long, Hold>> openHolds = new HashMap<String, Map<Long, Hold>>();
+
+		for(List<Event> history : histories) {
+			for(Event event : history) {
+				if(event.error != null) {
+					violations.add("unexpected " + event.error + " from " + event);
+					continue;
+				}
+				if(event.kind == Kind.QUERY || event.kind == Kind.QUERY_ROOMS) {
+					queries.add(event);
+					continue;
+				}
+
+				Set<Long> before = heldCells.getOrDefault(event.ref, new HashSet<Long>());
+				Set<Long> after = event.kind == Kind.CANCEL ? new HashSet<Long>() : cells(event.rooms, event.days);
+				if(!event.result) {
+					// a refusal is only about the cells the booking did not hold already.
+					event.contested = new HashSet<Long>(after);
+					event.contested.removeAll(before);
+					rejections.add(event);
+					if(event.kind == Kind.WAIT || engine instanceof LockFreeHotel) {
+						// the call may have held the cells for a moment: the lock-free engine rolls refused claims back,
+						// the waitlist undoes a booking made while it was cancelled. Never surely held.
+						for(long cell : event.contested) {
+							Hold hold = new Hold(event.ref, event.invoked, event.responded);
+							hold.surelyUntil = event.invoked;
+							hold.maybeUntil = event.responded;
+							holdsByCell.computeIfAbsent(cell, c -> new ArrayList<Hold>()).add(hold);
+						}
+					}
+					continue;
+				}
+
+				Map<Long, Hold> open = openHolds.computeIfAbsent(event.ref, r -> new HashMap<Long, Hold>());
+				for(long cell : before) {
+					if(!after.contains(cell)) {
+						// given up some time during this call.
+						Hold hold = open.remove(cell);
+						hold.surelyUntil = event.invoked;
+						hold.maybeUntil = event.responded;
+					}
+				}
+				for(long cell : after) {
+					if(!before.contains(cell)) {
+						// taken some time during this call.
+						Hold hold = new Hold(event.ref, event.invoked, event.responded);
+						open.put(cell, hold);
+						holdsByCell.computeIfAbsent(cell, c -> new ArrayList<Hold>()).add(hold);
+					}
+				}
+				heldCells.put(event.ref, after);
+			}
+		}
+
+		checkDoubleBookings(holdsByCell, violations);
+		checkRejections(rejections, holdsByCell, violations);
+		checkQueries(queries, holdsByCell, violations);
+		checkFinalState(holdsByCell, violations);
+		return violations;
+	}
+
+	private void checkDoubleBookings(Map<Long, List<Hold>> holdsByCell, List<String> violations) {
+		for(Map.Entry<Long, List<Hold>> entry : holdsByCell.entrySet()) {
+			List<Hold> holds = new ArrayList<Hold>(entry.getValue());
+			holds.sort(Comparator.comparingLong(hold -> hold.surelyFrom));
+			Hold longest = null;
+			for(Hold hold : holds) {
+				if(hold.surelyFrom >= hold.surelyUntil) {
+					// never surely held, it can not be part of a double booking.
+					continue;
+				}
+				if(longest != null && hold.surelyFrom < longest.surelyUntil) {
+					violations.add("double booking of " + cellName(entry.getKey()) + " by " + longest.ref + " and " + hold.ref);
+				}
+				if(longest == null || hold.surelyUntil > longest.surelyUntil) {
+					longest = hold;
+				}
+			}
+		}
+	}
+
+	private void checkRejections(List<Event> rejections, Map<Long, List<Hold>> holdsByCell, List<String> violations) {
+		for(Event event : rejections) {
+			boolean explained = false;
+			for(long cell : event.contested) {
+				for(Hold hold : holdsByCell.getOrDefault(cell, List.of())) {
+					if(!hold.ref.equals(event.ref) && hold.maybeFrom < event.responded && hold.maybeUntil > event.invoked) {
+						explained = true;
+						break;
+					}
+				}
+				if(explained) {
+					break;
+				}
+			}
+			if(!explained) {
+				violations.add("false rejection of " + event + ", none of its days could have been taken");
+			}
+		}
+	}
+
+	private void checkQueries(List<Event> queries, Map<Long, List<Hold>> holdsByCell, List<String> violations) {
+		for(Event event : queries) {
+			boolean maybeBooked = false;
+			boolean surelyBooked = false;
+			for(long cell : cells(event.rooms, event.days)) {
+				for(Hold hold : holdsByCell.getOrDefault(cell, List.of())) {
+					maybeBooked |= hold.maybeFrom < event.responded && hold.maybeUntil > event.invoked;
+					surelyBooked |= hold.surelyFrom <= event.invoked && hold.surelyUntil >= event.responded;
+				}
+			}
+			if(event.result && !maybeBooked) {
+				violations.add("query " + event + " answered booked while nobody could hold the days");
+			}
+			if(!event.result && surelyBooked) {
+				violations.add("query " + event + " answered free while the days were booked for its whole duration");
+			}
+		}
+	}
+
+	private void checkFinalState(Map<Long, List<Hold>> holdsByCell, List<String> violations) {
+		if(rollerError != null) {
+			violations.add("unexpected " + rollerError + " from the roller");
+		}
+		if(rollerArchived != rollerBooked) {
+			violations.add("the roller booked " + rollerBooked + " stays but " + rollerArchived + " were archived");
+		}
+		for(int room = 1; room <= rooms; room++) {
+			for(int day = 0; day < firstDay; day++) {
+				if(engine.roomBooked(day, day + 1, room)) {
+					violations.add("roll kept a stay: room " + room + " day " + day + " is still booked");
+				}
+			}
+		}
+
+		// the engine is quiet now, every cell must be booked exactly when a booking still holds it.
+		for(int room = 1; room <= rooms; room++) {
+			for(int day = 0; day < days; day++) {
+				long cell = cell(room, day);
+				String holder = null;
+				for(Hold hold : holdsByCell.getOrDefault(cell, List.of())) {
+					if(hold.surelyUntil == Long.MAX_VALUE) {
+						holder = hold.ref;
+					}
+				}
+				boolean booked = engine.roomBooked(new int[] { firstDay + day }, room);
+				if(booked && holder == null) {
+					violations.add("lost cancellation: " + cellName(cell) + " is still booked but no booking holds it");
+				}
+				if(!booked && holder != null) {
+					violations.add("lost booking: " + cellName(cell) + " is free but " + holder + " holds it");
+				}
+			}
+		}
+	}
+
+	private Set<Long> cells(int[] roomNums, int[] stayDays) {
+		Set<Long> cells = new HashSet<Long>();
+		for(int room : roomNums) {
+			for(int day : stayDays) {
+				cells.add(cell(room, day));
+			}
+		}
+		return cells;
+	}
+
+	private long cell(int room, int day) {
+		return (long) room * days + day;
+	}
+
+	private String cellName(long cell) {
+		return "room " + cell / days + " day " + cell % days;
+	}
+
+	/**
+	 * One recorded call.
+	 */
+	private static final class Event {
+		final Kind kind;
+		String ref;
+		int[] rooms;
+		int[] days;
+		long invoked;
+		long responded;
+		boolean interval;
+		boolean result;
+		Exception error;
+
+		// For a refused booking or update, the cells it asked for that it did not hold yet.
+		Set<Long> contested;
+
+		Event(Kind kind) {
+			this.kind = kind;
+		}
+
+		@Override
+		public String toString() {
+			return kind + (ref == null ? "" : " " + ref) + " rooms " + Arrays.toString(rooms) + " days " + Arrays.toString(days)
+					+ (interval ? " as interval" : "");
+		}
+	}
+
+	/**
+	 * A booking holding one cell. The booking surely held it between surelyFrom and surelyUntil and may
+	 * have held it between maybeFrom and maybeUntil, the difference being the calls that took and released it.
+	 */
+	private static final class Hold {
+		final String ref;
+		final long maybeFrom;
+		final long surelyFrom;
+		long surelyUntil = Long.MAX_VALUE;
+		long maybeUntil = Long.MAX_VALUE;
+
+		Hold(String ref, long maybeFrom, long surelyFrom) {
+			this.ref = ref;
+			this.maybeFrom = maybeFrom;
+			this.surelyFrom = surelyFrom;
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package hotelSystem;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Gets an executor that runs every task on a new virtual thread.
+ * Virtual threads came with Java 21, on older runtimes this falls back to a cached pool of platform threads,
+ * which works the same but needs a lot more memory per connection.
+ */
+final class VirtualThreads {
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * Creates an executor that starts one thread per task, virtual when the runtime has them.
+	 */
+	static ExecutorService newThreadPerTaskExecutor() {
+		try {
+			// looked up by reflection so the project still builds and runs on Java 17.
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch(ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(runnable -> {
+				Thread thread = new Thread(runnable);
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	/**
+	 * Tells if newThreadPerTaskExecutor gives virtual threads.
+	 */
+	static boolean available() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		}
+		catch(NoSuchMethodException e) {
+			return false;
+		}
+	}
+}
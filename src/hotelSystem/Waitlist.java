@@ -0,0 +1,239 @@
+package hotelSystem;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Booking requests that wait for their room to become free, so callers do not have to poll for it.
+ * The hotel tells the waitlist which days of which room were freed by a cancellation or an update, and only
+ * the requests that want one of those days are tried, found through a per room index of the stays they want
+ * keyed by check-in day. A request costs one index entry per stay, however many nights the stay has.
+ * Requests are tried in the order they were made.
+ *
+ * The freed days are tried on the waitlist's own thread, not on the thread that cancelled or updated:
+ * the waiting bookings, their journal waits and the callbacks of the futures they complete are not added
+ * to the cancellation's latency, and an exception thrown by any of them never reaches the canceller.
+ * The thread only exists while there is work for it.
+ *
+ * A request is taken out of the index while it is being tried and put back if the booking fails.
+ * After putting it back the room is checked once more, so days freed while the request was out of
+ * the index are never missed. A request is booked holding its own monitor and cancelling its future waits for it,
+ * so a booking made while the future is cancelled is undone before cancel returns.
+ */
+final class Waitlist {
+
+	private final Hotel hotel;
+
+	// Maps the room number with its waiting requests, guarded by the waitlist monitor.
+	private final Map<Integer, RoomWaiting> waitingByRoom = new HashMap<Integer, RoomWaiting>();
+	private int size;
+
+	private final AtomicLong nextSeq = new AtomicLong();
+
+	// One thread, so freed days are tried in the order they were freed, that stops after a while without work.
+	private final ThreadPoolExecutor freedDays;
+
+	Waitlist(Hotel hotel) {
+		this.hotel = hotel;
+		this.freedDays = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), runnable -> {
+			Thread thread = new Thread(runnable, "hotel-waitlist");
+			thread.setDaemon(true);
+			return thread;
+		});
+		freedDays.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Adds a request and tries it right away.
+	 * @return Completes with true once the room is booked, cancel it to leave the waitlist
+	 */
+	CompletableFuture<Boolean> add(String bookingRef, Stay[] stays, int roomNum) {
+		Request request = new Request(nextSeq.incrementAndGet(), bookingRef, stays, roomNum);
+		request.future.whenComplete((booked, e) -> {
+			// a caller that cancels the future gives up its place.
+			if(request.future.isCancelled()) {
+				remove(request);
+				// waits for a booking attempt in flight, which undoes its booking, so none is left once cancel returns.
+				synchronized(request) {
+				}
+			}
+		});
+		put(request);
+		tryAssign(request);
+		return request.future;
+	}
+
+	synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Hands the freed days of the room to the waitlist thread, which tries the requests waiting for any of them.
+	 * Called without holding any room lock, returns right away.
+	 */
+	void freed(int roomNum, Stay[] stays) {
+		freedDays.execute(() -> tryFreed(roomNum, stays));
+	}
+
+	private void tryFreed(int roomNum, Stay[] stays) {
+		List<Request> candidates = new ArrayList<Request>();
+		synchronized(this) {
+			RoomWaiting waiting = waitingByRoom.get(roomNum);
+			if(waiting == null) {
+				return;
+			}
+			Set<Request> seen = new LinkedHashSet<Request>();
+			for(Stay stay : stays) {
+				// a wanted stay that overlaps the freed one checks in before it ends and at most
+				// longestStay - 1 days before it starts, only the check-in days with requests are visited.
+				int from = (int) Math.max(0, (long) stay.checkIn - waiting.longestStay + 1);
+				for(Set<Request> requests : waiting.byCheckIn.subMap(from, stay.checkOut).values()) {
+					for(Request request : requests) {
+						if(request.wants(stay)) {
+							seen.add(request);
+						}
+					}
+				}
+			}
+			candidates.addAll(seen);
+		}
+		candidates.sort(Comparator.comparingLong(request -> request.seq));
+		for(Request request : candidates) {
+			tryAssign(request);
+		}
+	}
+
+	private void tryAssign(Request request) {
+		while(true) {
+			// whoever takes the request out of the index is the only one trying it.
+			if(!remove(request)) {
+				return;
+			}
+			synchronized(request) {
+				if(request.future.isDone()) {
+					// cancelled meanwhile.
+					return;
+				}
+				boolean booked;
+				try {
+					booked = hotel.bookRoom(request.bookingRef, request.stays, request.roomNum);
+				}
+				catch(RuntimeException e) {
+					// the request fails on its own, the other requests are still tried.
+					request.future.completeExceptionally(e);
+					return;
+				}
+				if(booked) {
+					if(!request.future.complete(true)) {
+						// cancelled while it was being booked, the caller no longer wants the room.
+						undo(request);
+					}
+					return;
+				}
+			}
+			put(request);
+			if(hotel.roomBooked(request.stays, request.roomNum)) {
+				// still taken, the cancellation that frees it will try again.
+				return;
+			}
+		}
+	}
+
+	private void undo(Request request) {
+		try {
+			hotel.cancelBooking(request.bookingRef);
+		}
+		catch(NoSuchBookingException e) {
+			// only the request knows the reference, nobody else can have cancelled it.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private synchronized void put(Request request) {
+		if(request.future.isDone()) {
+			return;
+		}
+		RoomWaiting waiting = waitingByRoom.computeIfAbsent(request.roomNum, r -> new RoomWaiting());
+		for(Stay stay : request.stays) {
+			waiting.byCheckIn.computeIfAbsent(stay.checkIn, d -> new LinkedHashSet<Request>()).add(request);
+			waiting.longestStay = Math.max(waiting.longestStay, stay.checkOut - stay.checkIn);
+		}
+		request.waiting = true;
+		size++;
+	}
+
+	/**
+	 * Takes the request out of the index.
+	 * @return False if it was not in the index
+	 */
+	private synchronized boolean remove(Request request) {
+		if(!request.waiting) {
+			return false;
+		}
+		RoomWaiting waiting = waitingByRoom.get(request.roomNum);
+		if(waiting == null) {
+			// a request without stays has no entries, the room may have been dropped meanwhile.
+			request.waiting = false;
+			size--;
+			return true;
+		}
+		for(Stay stay : request.stays) {
+			Set<Request> requests = waiting.byCheckIn.get(stay.checkIn);
+			if(requests != null && requests.remove(request) && requests.isEmpty()) {
+				waiting.byCheckIn.remove(stay.checkIn);
+			}
+		}
+		if(waiting.byCheckIn.isEmpty()) {
+			waitingByRoom.remove(request.roomNum);
+		}
+		request.waiting = false;
+		size--;
+		return true;
+	}
+
+	private static final class RoomWaiting {
+		// Maps the check-in day with the requests that want a stay starting that day.
+		final TreeMap<Integer, Set<Request>> byCheckIn = new TreeMap<Integer, Set<Request>>();
+
+		// Nights of the longest stay wanted in the room since it got requests, only grows so lookups never miss one.
+		int longestStay;
+	}
+
+	private static final class Request {
+		final long seq;
+		final String bookingRef;
+		final Stay[] stays;
+		final int roomNum;
+		final CompletableFuture<Boolean> future = new CompletableFuture<Boolean>();
+
+		// True while the request is in the index, guarded by the waitlist monitor.
+		boolean waiting;
+
+		Request(long seq, String bookingRef, Stay[] stays, int roomNum) {
+			this.seq = seq;
+			this.bookingRef = bookingRef;
+			this.stays = stays;
+			this.roomNum = roomNum;
+		}
+
+		boolean wants(Stay freed) {
+			for(Stay stay : stays) {
+				if(stay.overlaps(freed.checkIn, freed.checkOut)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}